@@ -1,7 +1,6 @@
-#version 330
+#version 460
 
-const int MAX_MATERIALS  = 20;
-const int MAX_TEXTURES = 16;
+const int MAX_TEXTURE_ARRAYS = 16;
 
 in vec3 outNormal;
 in vec3 outTangent;
@@ -18,6 +17,7 @@ layout (location = 0) out vec4 buffAlbedo;
 layout (location = 1) out vec4 buffNormal;
 layout (location = 2) out vec4 buffSpecular;
 
+// Texture indices are the texture array in the high 16 bits and the layer in the low ones, -1 for none
 struct Material
 {
     vec4 diffuse;
@@ -25,17 +25,22 @@ struct Material
     float reflectance;
     int normalMapIdx;
     int textureIdx;
+    int padding;
 };
 
-uniform sampler2D txtSampler[MAX_TEXTURES];
-uniform Material materials[MAX_MATERIALS];
+layout (std430, binding=3) readonly buffer Materials {
+    Material materials[];
+};
+
+uniform sampler2DArray txtArrays[MAX_TEXTURE_ARRAYS];
+vec4 sampleTexture(int, vec2);
 vec3 calcNormal(int, vec3, vec3, vec3, vec2);
 uniform int meshMode;
 
 void main() {
     
     Material material = materials[outMaterialIdx];
-    vec4 text_color = texture(txtSampler[material.textureIdx], outTextCoord);
+    vec4 text_color = sampleTexture(material.textureIdx, outTextCoord);
     vec4 diffuse = text_color + material.diffuse;
     if (diffuse.a < 0.5) {
         discard;
@@ -44,7 +49,7 @@ void main() {
     vec4 specular = text_color + material.specular;
 
     vec3 normal = outNormal;
-    if (material.normalMapIdx > 0) {
+    if (material.normalMapIdx >= 0) {
         normal = calcNormal(material.normalMapIdx, outNormal, outTangent, outBitangent, outTextCoord);
     }
 
@@ -59,9 +64,13 @@ void main() {
     buffSpecular = specular;
 }
 
+vec4 sampleTexture(int idx, vec2 textCoords) {
+    return texture(txtArrays[idx >> 16], vec3(textCoords, float(idx & 0xFFFF)));
+}
+
 vec3 calcNormal(int idx, vec3 normal, vec3 tangent, vec3 bitangent, vec2 textCoords) {
     mat3 TBN = mat3(tangent, bitangent, normal);
-    vec3 newNormal = texture(txtSampler[idx], textCoords).rgb;
+    vec3 newNormal = sampleTexture(idx, textCoords).rgb;
     newNormal = normalize(newNormal * 2.0 - 1.0);
     newNormal = normalize(TBN * newNormal);
     return newNormal;
@@ -1,13 +1,15 @@
 #version 460
 
-const int MAX_DRAW_ELEMENTS = 100;
-const int MAX_ENTITIES = 50;
-
+// Packed as VertexLayout says, the bitangent is rebuilt from the sign kept with the tangent
 layout (location=0) in vec3 position;
-layout (location=1) in vec3 normal;
-layout (location=2) in vec3 tangent;
-layout (location=3) in vec3 bitangent;
-layout (location=4) in vec2 texCoord;
+#ifdef DIRECTION_OCTAHEDRAL
+layout (location=1) in vec2 normalData;
+layout (location=2) in ivec2 tangentData;
+#else
+layout (location=1) in vec4 normalData;
+layout (location=2) in vec4 tangentData;
+#endif
+layout (location=3) in vec2 texCoord;
 
 out vec3 outNormal;
 out vec3 outTangent;
@@ -23,22 +25,97 @@ struct DrawElement
     int modelMatrixIdx;
     int materialIdx;
     int selected;
+    int hidden;
+};
+
+layout (std430, binding=0) readonly buffer DrawElements {
+    DrawElement drawElements[];
+};
+
+layout (std430, binding=1) readonly buffer ModelMatrices {
+    mat4 modelMatrices[];
+};
+
+layout (std430, binding=2) readonly buffer VisibleInstances {
+    uint visibleInstances[];
+};
+
+// Clip a crowd instance plays from the baked vertex animation, vatOffset is -1 for the binding pose
+struct CrowdInstance
+{
+    int vatOffset;
+    int numVertices;
+    int numFrames;
+    float framesPerSecond;
+    float phase;
+    float speed;
+    int padding0;
+    int padding1;
+};
+
+layout (std430, binding=4) readonly buffer CrowdInstances {
+    CrowdInstance crowdInstances[];
 };
 
 uniform mat4 projectionMatrix;
 uniform mat4 viewMatrix;
-uniform mat4 modelMatrix;
-uniform DrawElement drawElements[MAX_DRAW_ELEMENTS];
-uniform mat4 modelMatrices[MAX_ENTITIES];
+
+// Four texels per vertex and frame: position, normal, tangent and bitangent
+uniform samplerBuffer vatSampler;
+// Crowd instances are the last draw elements
+uniform int firstCrowdInstance;
+uniform float crowdTime;
+
+// Texel of the vertex in the two frames around the crowd clock and how far it is between them
+ivec2 crowdTexels(CrowdInstance crowdInstance, out float alpha)
+{
+    float frame = mod((crowdTime * crowdInstance.speed + crowdInstance.phase) * crowdInstance.framesPerSecond, float(crowdInstance.numFrames));
+    int frame0 = min(int(frame), crowdInstance.numFrames - 1);
+    int frame1 = (frame0 + 1) % crowdInstance.numFrames;
+    alpha = frame - float(frame0);
+    int vertex = gl_VertexID - gl_BaseVertex;
+    return crowdInstance.vatOffset + (ivec2(frame0, frame1) * crowdInstance.numVertices + vertex) * 4;
+}
+
+#ifdef DIRECTION_OCTAHEDRAL
+vec3 octDecode(vec2 e)
+{
+    vec3 v = vec3(e, 1.0 - abs(e.x) - abs(e.y));
+    if (v.z < 0.0) {
+        v.xy = (1.0 - abs(v.yx)) * vec2(v.x >= 0.0 ? 1.0 : -1.0, v.y >= 0.0 ? 1.0 : -1.0);
+    }
+    return normalize(v);
+}
+#endif
 
 void main(){
 
+#ifdef DIRECTION_OCTAHEDRAL
+    vec3 normal = octDecode(normalData);
+    vec3 tangent = octDecode(max(vec2(tangentData) / 32767.0, -1.0));
+    float bitangentSign = (tangentData.y & 1) != 0 ? -1.0 : 1.0;
+#else
+    vec3 normal = normalData.xyz;
+    vec3 tangent = tangentData.xyz;
+    float bitangentSign = tangentData.w < 0.0 ? -1.0 : 1.0;
+#endif
     vec4 initPos = vec4(position, 1.0);
     vec4 initNormal = vec4(normal, 0.0);
     vec4 initTangent = vec4(tangent, 0.0);
-    vec4 initBitangent = vec4(bitangent, 0.0);
+    vec4 initBitangent = vec4(cross(normal, tangent) * bitangentSign, 0.0);
 
-    uint idx = gl_BaseInstance + gl_InstanceID;
+    uint idx = visibleInstances[gl_BaseInstance + gl_InstanceID];
+    if (int(idx) >= firstCrowdInstance) {
+        CrowdInstance crowdInstance = crowdInstances[int(idx) - firstCrowdInstance];
+        if (crowdInstance.vatOffset >= 0) {
+            float alpha;
+            ivec2 texels = crowdTexels(crowdInstance, alpha);
+            initPos = vec4(mix(texelFetch(vatSampler, texels.x).xyz, texelFetch(vatSampler, texels.y).xyz, alpha), 1.0);
+            initNormal = vec4(mix(texelFetch(vatSampler, texels.x + 1).xyz, texelFetch(vatSampler, texels.y + 1).xyz, alpha), 0.0);
+            initTangent = vec4(mix(texelFetch(vatSampler, texels.x + 2).xyz, texelFetch(vatSampler, texels.y + 2).xyz, alpha), 0.0);
+            initBitangent = vec4(mix(texelFetch(vatSampler, texels.x + 3).xyz, texelFetch(vatSampler, texels.y + 3).xyz, alpha), 0.0);
+        }
+    }
     DrawElement drawElement = drawElements[idx];
     outMaterialIdx = drawElement.materialIdx;
     mat4 modelMatrix =  modelMatrices[drawElement.modelMatrixIdx];
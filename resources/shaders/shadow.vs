@@ -1,28 +1,76 @@
 #version 460
 
-const int MAX_DRAW_ELEMENTS = 100;
-const int MAX_ENTITIES = 50;
-
+// Only the position of the VertexLayout is read
 layout (location=0) in vec3 position;
-layout (location=1) in vec3 normal;
-layout (location=2) in vec3 tangent;
-layout (location=3) in vec3 bitangent;
-layout (location=4) in vec2 texCoord;
 
 struct DrawElement
 {
     int modelMatrixIdx;
+    int materialIdx;
+    int selected;
+    int hidden;
+};
+
+layout (std430, binding=0) readonly buffer DrawElements {
+    DrawElement drawElements[];
+};
+
+layout (std430, binding=1) readonly buffer ModelMatrices {
+    mat4 modelMatrices[];
+};
+
+layout (std430, binding=2) readonly buffer VisibleInstances {
+    uint visibleInstances[];
+};
+
+// Clip a crowd instance plays from the baked vertex animation, vatOffset is -1 for the binding pose
+struct CrowdInstance
+{
+    int vatOffset;
+    int numVertices;
+    int numFrames;
+    float framesPerSecond;
+    float phase;
+    float speed;
+    int padding0;
+    int padding1;
+};
+
+layout (std430, binding=4) readonly buffer CrowdInstances {
+    CrowdInstance crowdInstances[];
 };
 
-uniform mat4 modelMatrix;
 uniform mat4 projViewMatrix;
-uniform DrawElement drawElements[MAX_DRAW_ELEMENTS];
-uniform mat4 modelMatrices[MAX_ENTITIES];
+
+// Four texels per vertex and frame, the position comes first
+uniform samplerBuffer vatSampler;
+// Crowd instances are the last draw elements
+uniform int firstCrowdInstance;
+uniform float crowdTime;
+
+// Texel of the vertex in the two frames around the crowd clock and how far it is between them
+ivec2 crowdTexels(CrowdInstance crowdInstance, out float alpha)
+{
+    float frame = mod((crowdTime * crowdInstance.speed + crowdInstance.phase) * crowdInstance.framesPerSecond, float(crowdInstance.numFrames));
+    int frame0 = min(int(frame), crowdInstance.numFrames - 1);
+    int frame1 = (frame0 + 1) % crowdInstance.numFrames;
+    alpha = frame - float(frame0);
+    int vertex = gl_VertexID - gl_BaseVertex;
+    return crowdInstance.vatOffset + (ivec2(frame0, frame1) * crowdInstance.numVertices + vertex) * 4;
+}
 
 void main()
 {
     vec4 initPos = vec4(position, 1.0);
-    uint idx = gl_BaseInstance + gl_InstanceID;
+    uint idx = visibleInstances[gl_BaseInstance + gl_InstanceID];
+    if (int(idx) >= firstCrowdInstance) {
+        CrowdInstance crowdInstance = crowdInstances[int(idx) - firstCrowdInstance];
+        if (crowdInstance.vatOffset >= 0) {
+            float alpha;
+            ivec2 texels = crowdTexels(crowdInstance, alpha);
+            initPos = vec4(mix(texelFetch(vatSampler, texels.x).xyz, texelFetch(vatSampler, texels.y).xyz, alpha), 1.0);
+        }
+    }
     int modelMatrixIdx = drawElements[idx].modelMatrixIdx;
     mat4 modelMatrix = modelMatrices[modelMatrixIdx];
     gl_Position = projViewMatrix * modelMatrix * initPos;
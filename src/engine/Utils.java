@@ -1,6 +1,9 @@
 package src.engine;
 
+import org.lwjgl.system.MemoryUtil;
+
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.util.List;
 
@@ -31,5 +34,13 @@ public class Utils {
     public static int[] listIntToArray(List<Integer> list) {
         return list.stream().mapToInt((Integer v) -> v).toArray();
     }
+
+    // Reallocates a MemoryUtil buffer to hold at least size bytes, at least doubling it, keeping its contents and position
+    public static ByteBuffer ensureCapacity(ByteBuffer buffer, int size) {
+        if (buffer.capacity() >= size) {
+            return buffer;
+        }
+        return MemoryUtil.memRealloc(buffer, Math.max(size, buffer.capacity() * 2));
+    }
     
 }
@@ -0,0 +1,115 @@
+package src.engine.graphics;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import src.engine.scene.*;
+
+import java.util.*;
+
+/*
+ * Picks how often an animated entity is posed and skinned. Entities CullRender last found in no view, outside
+ * every frustum or behind the depth pyramid, are not skinned at all and keep their last skinned vertices. That
+ * visibility is a frame or more old, so one coming into view is drawn once with its last pose. The others
+ * update every interval frames for the level their distance to the camera falls in. Entities of a level are spread over its interval by slot
+ * so the work of a crowd is split evenly between frames. Counts of the last frame are kept as metrics.
+ */
+public class AnimationLod {
+
+    private float[] distances;
+    private int[] intervals;
+
+    private final Vector3f cameraPosition;
+    private CullRender cullRender;
+    private long frame;
+
+    private int[] levelCounts;
+    private int culledCount;
+    private int updatedCount;
+    private int deferredCount;
+
+    public AnimationLod(){
+        cameraPosition = new Vector3f();
+        setLevels(new float[]{ 15, 30, 60 }, new int[]{ 1, 2, 4, 8 });
+    }
+
+    // Level i covers distances up to distances[i], the last level everything beyond, so there is one more interval
+    public void setLevels(float[] distances, int[] intervals){
+        if(intervals.length != distances.length + 1){
+            throw new RuntimeException("Expected " + (distances.length + 1) + " intervals, got " + intervals.length);
+        }
+        this.distances = distances.clone();
+        this.intervals = intervals.clone();
+        levelCounts = new int[intervals.length];
+    }
+
+    public void begin(Scene scene, CullRender cullRender){
+        this.cullRender = cullRender;
+        cullRender.fetchVisibleSlots();
+        cameraPosition.set(scene.getCamera().getPosition());
+        frame++;
+
+        Arrays.fill(levelCounts, 0);
+        culledCount = 0;
+        updatedCount = 0;
+        deferredCount = 0;
+    }
+
+    // Whether the entity has to be posed and skinned this frame. mustUpdate is for entities whose own skinned
+    // vertices can not be drawn as they are, culled or not: never skinned yet, or last drawn from another entity's
+    public boolean shouldUpdate(Entity entity, boolean mustUpdate){
+        if(!cullRender.wasSlotVisible(entity.getSlot())){
+            culledCount++;
+            return mustUpdate;
+        }
+
+        int level = selectLevel(entity);
+        levelCounts[level]++;
+        if(mustUpdate || (frame + entity.getSlot()) % intervals[level] == 0){
+            updatedCount++;
+            return true;
+        }
+        deferredCount++;
+        return false;
+    }
+
+    private int selectLevel(Entity entity){
+        Matrix4f modelMatrix = entity.getModelMatrix();
+        float distanceSquared = cameraPosition.distanceSquared(modelMatrix.m30(), modelMatrix.m31(), modelMatrix.m32());
+        int level = 0;
+        while (level < distances.length && distanceSquared > distances[level] * distances[level]) {
+            level++;
+        }
+        return level;
+    }
+
+    public int getNumLevels(){
+        return intervals.length;
+    }
+
+    public int getLevelCount(int level){
+        return levelCounts[level];
+    }
+
+    // Entities left unskinned because no view drew them
+    public int getCulledCount(){
+        return culledCount;
+    }
+
+    public int getUpdatedCount(){
+        return updatedCount;
+    }
+
+    public int getDeferredCount(){
+        return deferredCount;
+    }
+
+    public float[] getDistances(){
+        return distances.clone();
+    }
+
+    public int[] getIntervals(){
+        return intervals.clone();
+    }
+
+}
@@ -1,63 +1,288 @@
 package src.engine.graphics;
 
+import org.lwjgl.system.MemoryUtil;
+import src.engine.Utils;
 import src.engine.scene.*;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import static org.lwjgl.opengl.GL43.*;
+import static src.engine.graphics.UniformMap.*;
 
+/*
+ * Skins every visible animated mesh with a single dispatch. The poses of the visible entities are sampled
+ * in parallel and streamed as bone palettes, then the parameters of each mesh are written as a job into a
+ * StreamBuffer and every invocation looks up the job its vertex falls in. Entities of a model sampled at the
+ * same tick of the same clip are posed and skinned once, the others are drawn from that entity's vertices.
+ * Only that work is shared: every entity keeps its own skinned range and its own draw command, so it can leave
+ * the group at any frame without allocating.
+ */
 public class AnimationRender {
 
+    public static final int BONES_BINDING = 2;
+    public static final int SKIN_JOBS_BINDING = 4;
+    public static final int DEST_POSITIONS_BINDING = 5;
+    private static final int BONE_SIZE = Skeleton.BONE_SIZE_FLOATS * 4;
+    // srcOffset, weightsOffset, bonesMatricesOffset, dstOffset, firstVertex, numVertices, dstPositionOffset and padding, std430
+    public static final int SKIN_JOB_SIZE = 8 * 4;
+    private static final int GROUP_SIZE = 64;
+
     private Shader shaderProgram;
     private UniformMap uniformsMap;
+    private IntUniform numJobs;
+    private IntUniform numVertices;
+
+    private final VertexLayout vertexLayout;
+    private StreamBuffer skinJobsStream;
+    private ByteBuffer skinJobsData;
+    private StreamBuffer bonesStream;
+    private ByteBuffer bonesData;
+
+    private AnimationSampler sampler;
+    private AnimationData[] poses;
+    private Entity[] posedEntities;
+    private AnimationLod animationLod;
+    // Per entity slot, the entity it was last updated for and the entity whose skinned vertices it draws
+    private int[] ownerHandles;
+    private int[] sourceHandles;
+    private EntityRegistry entityRegistry;
+    private PoseLeaders poseLeaders;
+    private int sharedCount;
+    // Per entity slot, the animation data and pose version its own range was last skinned with
+    private AnimationData[] skinnedData;
+    private int[] skinnedVersions;
+    private int skinnedCount;
+    private int skippedCount;
 
-    public AnimationRender() {
+    public AnimationRender(VertexLayout vertexLayout) {
+        this.vertexLayout = vertexLayout;
         List<Shader.ShaderModuleData> shaderModuleDataList = new ArrayList<>();
-        shaderModuleDataList.add(new Shader.ShaderModuleData("resources/shaders/anim.comp", GL_COMPUTE_SHADER));
+        shaderModuleDataList.add(new Shader.ShaderModuleData("resources/shaders/anim.comp", GL_COMPUTE_SHADER, vertexLayout.getShaderDefines()));
         shaderProgram = new Shader(shaderModuleDataList);
         createUniforms();
+
+        skinJobsStream = new StreamBuffer(SKIN_JOB_SIZE * 64);
+        skinJobsData = MemoryUtil.memAlloc(SKIN_JOB_SIZE * 64);
+        bonesStream = new StreamBuffer(BONE_SIZE * 1024);
+        bonesData = MemoryUtil.memAlloc(BONE_SIZE * 1024);
+
+        sampler = new AnimationSampler();
+        poses = new AnimationData[16];
+        posedEntities = new Entity[16];
+        animationLod = new AnimationLod();
+        ownerHandles = new int[0];
+        sourceHandles = new int[0];
+        poseLeaders = new PoseLeaders();
+        skinnedData = new AnimationData[0];
+        skinnedVersions = new int[0];
     }
 
     public void cleanup() {
         shaderProgram.cleanup();
+        skinJobsStream.cleanup();
+        MemoryUtil.memFree(skinJobsData);
+        bonesStream.cleanup();
+        MemoryUtil.memFree(bonesData);
     }
 
     private void createUniforms() {
         uniformsMap = new UniformMap(shaderProgram.getProgramId());
-        uniformsMap.createUniform("drawParameters.srcOffset");
-        uniformsMap.createUniform("drawParameters.srcSize");
-        uniformsMap.createUniform("drawParameters.weightsOffset");
-        uniformsMap.createUniform("drawParameters.bonesMatricesOffset");
-        uniformsMap.createUniform("drawParameters.dstOffset");
+        numJobs = uniformsMap.createUniform("numJobs", IntUniform::new);
+        numVertices = uniformsMap.createUniform("numVertices", IntUniform::new);
     }
 
-    public void render(Scene scene, RenderBuffers globalBuffer) {
+    public void render(Scene scene, RenderBuffers globalBuffer, CullRender cullRender) {
+        // Hidden entities are not drawn, so they are neither posed nor skinned, the LOD defers or skips others
+        animationLod.begin(scene, cullRender);
+        entityRegistry = scene.getEntityRegistry();
+        int numSlots = entityRegistry.getSlotCount();
+        if(numSlots > ownerHandles.length){
+            int oldLength = ownerHandles.length;
+            ownerHandles = Arrays.copyOf(ownerHandles, numSlots);
+            sourceHandles = Arrays.copyOf(sourceHandles, numSlots);
+            Arrays.fill(ownerHandles, oldLength, numSlots, EntityRegistry.INVALID_HANDLE);
+            skinnedData = Arrays.copyOf(skinnedData, numSlots);
+            skinnedVersions = Arrays.copyOf(skinnedVersions, numSlots);
+        }
+        int numPoses = 0;
+        sharedCount = 0;
+        skippedCount = 0;
+        for (Model model : scene.getAnimModelList()) {
+            // Entities of a model sampled at the same tick of the same clip are skinned once, by the first of them
+            poseLeaders.begin(model.getEntityList().size());
+            List<Model.Animation> clips = model.getAnimationList();
+            for(Entity entity : model.getEntityList()){
+                if(!entity.isVisible()) continue;
+                int slot = entity.getSlot();
+                // A leader may move on without its followers, so they are never left to draw its range deferred
+                boolean ownRange = getDrawSource(entity) == entity;
+                if(!animationLod.shouldUpdate(entity, !ownRange)) continue;
+                if(ownerHandles[slot] != entity.getHandle()){
+                    skinnedData[slot] = null;
+                }
+                ownerHandles[slot] = entity.getHandle();
+
+                AnimationData animationData = entity.getAnimationData();
+                int leaderHandle = poseLeaders.putIfAbsent(poseKey(clips, animationData), entity.getHandle());
+                if(leaderHandle != EntityRegistry.INVALID_HANDLE){
+                    sourceHandles[slot] = leaderHandle;
+                    sharedCount++;
+                    continue;
+                }
+                sourceHandles[slot] = entity.getHandle();
+
+                // Its own range already holds this pose, as when paused, in mesh mode or between game updates
+                if(skinnedData[slot] == animationData && skinnedVersions[slot] == animationData.getPoseVersion()){
+                    skippedCount++;
+                    continue;
+                }
+                skinnedData[slot] = animationData;
+                skinnedVersions[slot] = animationData.getPoseVersion();
+
+                if(numPoses == poses.length){
+                    poses = Arrays.copyOf(poses, numPoses * 2);
+                    posedEntities = Arrays.copyOf(posedEntities, numPoses * 2);
+                }
+                poses[numPoses] = entity.getAnimationData();
+                posedEntities[numPoses] = entity;
+                numPoses++;
+            }
+        }
+        sampler.sample(poses, numPoses);
+        skinnedCount = numPoses;
+
+        bonesData.clear();
+        skinJobsData.clear();
+        int jobCount = 0;
+        int vertexCount = 0;
+
+        for (int i = 0; i < numPoses; i++) {
+            float[] palette = poses[i].getBonesData();
+            int bonesOffset = bonesData.position() / BONE_SIZE;
+            bonesData = Utils.ensureCapacity(bonesData, bonesData.position() + palette.length * 4);
+            bonesData.asFloatBuffer().put(palette);
+            bonesData.position(bonesData.position() + palette.length * 4);
+
+            for (RenderBuffers.MeshDrawData meshDrawData : posedEntities[i].getMeshDrawDataList()) {
+                RenderBuffers.AnimMeshDrawData animMeshDrawData = meshDrawData.animMeshDrawData();
+                int meshVertices = meshDrawData.sizeInBytes() / vertexLayout.getStride();
+                if(meshVertices == 0) continue;
+                skinJobsData = Utils.ensureCapacity(skinJobsData, (jobCount + 1) * SKIN_JOB_SIZE);
+                skinJobsData.putInt(animMeshDrawData.bindingPoseOffset());
+                skinJobsData.putInt(animMeshDrawData.weightsOffset());
+                skinJobsData.putInt(bonesOffset);
+                skinJobsData.putInt(meshDrawData.offset() * vertexLayout.getStrideWords());
+                skinJobsData.putInt(vertexCount);
+                skinJobsData.putInt(meshVertices);
+                skinJobsData.putInt(meshDrawData.offset() * vertexLayout.getPositionWords());
+                skinJobsData.putInt(0);
+                jobCount++;
+                vertexCount += meshVertices;
+            }
+        }
+        Arrays.fill(poses, 0, numPoses, null);
+        Arrays.fill(posedEntities, 0, numPoses, null);
+
+        if(jobCount == 0){
+            return;
+        }
+        skinJobsData.flip();
+        skinJobsStream.write(skinJobsData);
+        bonesData.flip();
+        bonesStream.write(bonesData);
+
         shaderProgram.bind();
         glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 0, globalBuffer.getBindingPosesBuffer());
         glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 1, globalBuffer.getBonesIndicesWeightsBuffer());
-        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 2, globalBuffer.getBonesMatricesBuffer());
+        bonesStream.bindRange(GL_SHADER_STORAGE_BUFFER, BONES_BINDING, bonesData.limit());
         glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 3, globalBuffer.getDestAnimationBuffer());
+        skinJobsStream.bindRange(GL_SHADER_STORAGE_BUFFER, SKIN_JOBS_BINDING, skinJobsData.limit());
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, DEST_POSITIONS_BINDING, globalBuffer.getDestPositionsBuffer());
 
-        int dstOffset = 0;
-        for (Model model : scene.getAnimModelList()) {
-            for(Entity entity : model.getEntityList())
-                for (RenderBuffers.MeshDrawData meshDrawData : entity.getMeshDrawDataList()) {
-                    RenderBuffers.AnimMeshDrawData animMeshDrawData = meshDrawData.animMeshDrawData();
-                    Model.AnimatedFrame frame = entity.getAnimationData().getCurrentFrame();
-                    int groupSize = (int) Math.ceil((float) meshDrawData.sizeInBytes() / (14 * 4));
-                    uniformsMap.setUniform("drawParameters.srcOffset", animMeshDrawData.bindingPoseOffset());
-                    uniformsMap.setUniform("drawParameters.srcSize", meshDrawData.sizeInBytes() / 4);
-                    uniformsMap.setUniform("drawParameters.weightsOffset", animMeshDrawData.weightsOffset());
-                    uniformsMap.setUniform("drawParameters.bonesMatricesOffset", frame.getOffset());
-                    uniformsMap.setUniform("drawParameters.dstOffset", dstOffset);
-                    glDispatchCompute(groupSize, 1, 1);
-                    dstOffset += meshDrawData.sizeInBytes() / 4;
-                }
-            
-        }
-
+        uniformsMap.setUniform(numJobs, jobCount);
+        uniformsMap.setUniform(numVertices, vertexCount);
+        glDispatchCompute((vertexCount + GROUP_SIZE - 1) / GROUP_SIZE, 1, 1);
+        // The dispatch is the only reader of this frame's jobs and palettes
+        skinJobsStream.end();
+        bonesStream.end();
 
         glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
         shaderProgram.unbind();
     }
+
+    // Entity whose skinned vertices the entity is drawn with, itself unless it shares a pose, null before its first update
+    public Entity getDrawSource(Entity entity) {
+        int slot = entity.getSlot();
+        if(entityRegistry == null || slot >= ownerHandles.length || ownerHandles[slot] != entity.getHandle()){
+            return null;
+        }
+        return entityRegistry.get(sourceHandles[slot]);
+    }
+
+    public AnimationLod getAnimationLod() {
+        return animationLod;
+    }
+
+    // Entities drawn with another entity's skinned vertices in the last frame
+    public int getSharedCount() {
+        return sharedCount;
+    }
+
+    // Entities posed and skinned in the last frame
+    public int getSkinnedCount() {
+        return skinnedCount;
+    }
+
+    // Entities due for an update in the last frame whose range already held their pose
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    // Clip index and the bits of the tick AnimationData.samplePose() samples at, so leader and followers hold the same pose
+    private static long poseKey(List<Model.Animation> clips, AnimationData animationData){
+        Model.Animation animation = animationData.getCurrentAnimation();
+        int clip = 0;
+        while (clip < clips.size() && clips.get(clip) != animation) {
+            clip++;
+        }
+        return (long) clip << 32 | (Float.floatToIntBits(animationData.getCurrentTick()) & 0xffffffffL);
+    }
+
+    /*
+     * First entity handle seen per pose key while walking one model. Open addressed over arrays that only grow,
+     * and emptied by moving to a new generation, so grouping allocates nothing per entity or frame.
+     */
+    private static class PoseLeaders {
+        private long[] keys = new long[0];
+        private int[] handles = new int[0];
+        private int[] generations = new int[0];
+        private int generation;
+
+        void begin(int numEntities){
+            int capacity = Integer.highestOneBit(Math.max(1, numEntities) * 2 - 1) << 1;
+            if(capacity > keys.length){
+                keys = new long[capacity];
+                handles = new int[capacity];
+                generations = new int[capacity];
+            }
+            generation++;
+        }
+
+        // Handle of the entity first given the key, INVALID_HANDLE if there was none and handle is now that entity
+        int putIfAbsent(long key, int handle){
+            int mask = keys.length - 1;
+            int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+            while (generations[i] == generation) {
+                if(keys[i] == key){
+                    return handles[i];
+                }
+                i = (i + 1) & mask;
+            }
+            generations[i] = generation;
+            keys[i] = key;
+            handles[i] = handle;
+            return EntityRegistry.INVALID_HANDLE;
+        }
+    }
 }
\ No newline at end of file
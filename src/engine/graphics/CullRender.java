@@ -0,0 +1,505 @@
+package src.engine.graphics;
+
+import org.joml.*;
+import org.lwjgl.opengl.ARBIndirectParameters;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.tinylog.Logger;
+import src.engine.scene.*;
+
+import java.lang.Math;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+
+import static org.lwjgl.opengl.GL46.*;
+import static src.engine.graphics.UniformMap.*;
+
+/*
+ * Frustum culling of every instance in DrawBuffers against the camera and each shadow cascade. The survivors
+ * of each view are compacted into its own section of the culled command buffer, commands with 16 bit indices
+ * first and those with 32 bit ones after, so a view takes one multi-draw per index type whatever the mix of
+ * static, animated and crowd meshes sharing the RenderBuffers VAO. Their draw element indices are written
+ * to the visible instances buffer that the vertex shaders read through gl_BaseInstance + gl_InstanceID.
+ * With GL 4.6 or ARB_indirect_parameters this runs on the GPU and the draw counts never come back to the CPU.
+ * The camera view is then also occlusion culled in two phases: first against a HiZBuffer of the previous
+ * frame's depth, then, once this frame's depth is there, the instances rejected by the first phase are tested
+ * again against the rebuilt pyramid and drawn as the OCCLUSION_VIEW section so nothing pops in late.
+ * Otherwise the same contents are written on the CPU from a FrustumCuller into StreamBuffers, fenced at
+ * endFrame(), and drawn with glMultiDrawElementsIndirect.
+ * Either way the entity slots with an instance drawn in any view are recorded, read back late on the GPU path,
+ * so skinning can leave out entities nothing saw.
+ */
+public class CullRender {
+
+    public static final int CAMERA_VIEW = 0;
+    public static final int NUM_VIEWS = 1 + CascadeShadow.SHADOW_MAP_CASCADE_COUNT;
+    // Second occlusion phase of the camera, kept as an extra view section after the others
+    public static final int OCCLUSION_VIEW = NUM_VIEWS;
+    public static final int VISIBLE_INSTANCES_BINDING = 2;
+
+    private static final int CULL_INSTANCES_BINDING = 3;
+    private static final int INSTANCE_COUNTS_BINDING = 4;
+    private static final int COMMANDS_BINDING = 5;
+    private static final int CULLED_COMMANDS_BINDING = 6;
+    private static final int DRAW_COUNTS_BINDING = 7;
+    private static final int OCCLUDED_INSTANCES_BINDING = 8;
+    private static final int VISIBLE_SLOTS_BINDING = 9;
+    private static final int NUM_SECTIONS = NUM_VIEWS + 1;
+    // Commands with 16 and 32 bit indices are compacted and drawn as separate lists
+    private static final int NUM_LISTS = 2;
+    private static final int[] LIST_INDEX_TYPES = { GL_UNSIGNED_SHORT, GL_UNSIGNED_INT };
+    private static final int GROUP_SIZE = 64;
+
+    private final boolean gpuCulling;
+    private final boolean coreDrawCount;
+
+    private Shader cullShader;
+    private Shader compactShader;
+    private UniformMap cullUniforms;
+    private UniformMap compactUniforms;
+    private UniformArray<Vec4Uniform> planes;
+    private IntUniform cullNumInstances;
+    private IntUniform cullNumCommands;
+    private IntUniform cullFirstView;
+    private IntUniform phase;
+    private IntUniform hiZEnabled;
+    private Mat4Uniform hiZProjViewMatrix;
+    private IntUniform hiZSampler;
+    private IntUniform compactFirstView;
+    private IntUniform compactNumInstances;
+    private IntUniform compactNumCommands;
+    private IntUniform compactNumShortCommands;
+
+    private int visibleInstancesBuffer;
+    private int instanceCountsBuffer;
+    private int culledCommandsBuffer;
+    private int drawCountsBuffer;
+    private int occludedInstancesBuffer;
+    private int instanceCapacity;
+    private int commandCapacity;
+
+    private int numInstances;
+    private int numCommands;
+    private int numShortCommands;
+    private int numSlots;
+
+    // Per entity slot, non zero if an instance of it was drawn in any view, null while that is not known
+    private IntBuffer visibleSlots;
+    private int[] visibleSlotsData;
+    private int visibleSlotsBuffer;
+    private int slotCapacity;
+    private ReadbackBuffer visibleSlotsReadback;
+
+    private Matrix4f projViewMatrix;
+    private Vector4f[] viewPlanes;
+
+    private HiZBuffer hiZBuffer;
+    private Matrix4f hiZMatrix;
+    private boolean hiZValid;
+
+    // CPU fallback
+    private FrustumCuller frustumCuller;
+    private Matrix4f[] viewMatrices;
+    private Matrix4f modelMatrix;
+    private Vector3f worldMin;
+    private Vector3f worldMax;
+    private int[] drawCounts;
+    private int[] instanceCounts;
+    private StreamBuffer visibleInstancesStream;
+    private StreamBuffer culledCommandsStream;
+
+    public CullRender(GBuffer gBuffer){
+        GLCapabilities caps = GL.getCapabilities();
+        coreDrawCount = caps.OpenGL46;
+        gpuCulling = caps.OpenGL46 || caps.GL_ARB_indirect_parameters;
+        if(!gpuCulling){
+            Logger.info("Indirect draw count not supported, culling on the CPU");
+        }
+
+        projViewMatrix = new Matrix4f();
+        viewPlanes = new Vector4f[NUM_VIEWS * 6];
+        for (int i = 0; i < viewPlanes.length; i++) {
+            viewPlanes[i] = new Vector4f();
+        }
+        drawCounts = new int[NUM_SECTIONS * NUM_LISTS];
+
+        if(gpuCulling){
+            visibleInstancesBuffer = glGenBuffers();
+            culledCommandsBuffer = glGenBuffers();
+
+            List<Shader.ShaderModuleData> shaderModuleDataList = new ArrayList<>();
+            // The view count follows the cascade count
+            shaderModuleDataList.add(new Shader.ShaderModuleData("resources/shaders/cull.comp", GL_COMPUTE_SHADER,
+                "#define NUM_VIEWS " + NUM_VIEWS + "\n"));
+            cullShader = new Shader(shaderModuleDataList);
+            shaderModuleDataList = new ArrayList<>();
+            shaderModuleDataList.add(new Shader.ShaderModuleData("resources/shaders/compact.comp", GL_COMPUTE_SHADER));
+            compactShader = new Shader(shaderModuleDataList);
+            createUniforms();
+
+            instanceCountsBuffer = glGenBuffers();
+            occludedInstancesBuffer = glGenBuffers();
+            drawCountsBuffer = glGenBuffers();
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, drawCountsBuffer);
+            glBufferData(GL_SHADER_STORAGE_BUFFER, NUM_SECTIONS * NUM_LISTS * 4, GL_DYNAMIC_DRAW);
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+
+            hiZBuffer = new HiZBuffer(gBuffer.getWidth(), gBuffer.getHeight());
+            hiZMatrix = new Matrix4f();
+            hiZValid = false;
+
+            visibleSlotsBuffer = glGenBuffers();
+            visibleSlotsReadback = new ReadbackBuffer(4 * 64);
+        }else{
+            frustumCuller = new FrustumCuller();
+            viewMatrices = new Matrix4f[NUM_VIEWS];
+            modelMatrix = new Matrix4f();
+            worldMin = new Vector3f();
+            worldMax = new Vector3f();
+            instanceCounts = new int[0];
+            visibleInstancesStream = new StreamBuffer(NUM_SECTIONS * 4 * 64);
+            culledCommandsStream = new StreamBuffer(NUM_SECTIONS * DrawBuffers.COMMAND_SIZE * 64);
+        }
+        visibleSlotsData = new int[0];
+    }
+
+    public void cleanup(){
+        if(gpuCulling){
+            glDeleteBuffers(visibleInstancesBuffer);
+            glDeleteBuffers(culledCommandsBuffer);
+            cullShader.cleanup();
+            compactShader.cleanup();
+            glDeleteBuffers(instanceCountsBuffer);
+            glDeleteBuffers(occludedInstancesBuffer);
+            glDeleteBuffers(drawCountsBuffer);
+            hiZBuffer.cleanup();
+            glDeleteBuffers(visibleSlotsBuffer);
+            visibleSlotsReadback.cleanup();
+        }else{
+            visibleInstancesStream.cleanup();
+            culledCommandsStream.cleanup();
+        }
+    }
+
+    private void createUniforms(){
+        cullUniforms = new UniformMap(cullShader.getProgramId());
+        planes = cullUniforms.createUniformArray("planes", "", NUM_VIEWS * 6, Vec4Uniform::new);
+        cullNumInstances = cullUniforms.createUniform("numInstances", IntUniform::new);
+        cullNumCommands = cullUniforms.createUniform("numCommands", IntUniform::new);
+        cullFirstView = cullUniforms.createUniform("firstView", IntUniform::new);
+        phase = cullUniforms.createUniform("phase", IntUniform::new);
+        hiZEnabled = cullUniforms.createUniform("hiZEnabled", IntUniform::new);
+        hiZProjViewMatrix = cullUniforms.createUniform("hiZProjViewMatrix", Mat4Uniform::new);
+        hiZSampler = cullUniforms.createUniform("hiZSampler", IntUniform::new);
+
+        compactUniforms = new UniformMap(compactShader.getProgramId());
+        compactNumInstances = compactUniforms.createUniform("numInstances", IntUniform::new);
+        compactNumCommands = compactUniforms.createUniform("numCommands", IntUniform::new);
+        compactNumShortCommands = compactUniforms.createUniform("numShortCommands", IntUniform::new);
+        compactFirstView = compactUniforms.createUniform("firstView", IntUniform::new);
+    }
+
+    // The pyramid follows the size of the depth it is built from, the one of the previous frame no longer applies
+    public void resize(GBuffer gBuffer){
+        if(!gpuCulling){
+            return;
+        }
+        hiZBuffer.cleanup();
+        hiZBuffer = new HiZBuffer(gBuffer.getWidth(), gBuffer.getHeight());
+        hiZValid = false;
+    }
+
+    // Cascades have to be updated before this is called
+    public void render(Scene scene, DrawBuffers drawBuffers, List<CascadeShadow> cascadeShadows){
+        numInstances = drawBuffers.getInstanceCount();
+        numCommands = drawBuffers.getCommandCount();
+        numShortCommands = drawBuffers.getShortIndexDrawCount();
+        numSlots = scene.getEntityRegistry().getSlotCount();
+        if(numCommands == 0){
+            return;
+        }
+
+        projViewMatrix.set(scene.getProjection().getProjMatrix()).mul(scene.getCamera().getViewMatrix());
+        setPlanes(CAMERA_VIEW, projViewMatrix);
+        for (int i = 0; i < CascadeShadow.SHADOW_MAP_CASCADE_COUNT; i++) {
+            setPlanes(CAMERA_VIEW + 1 + i, cascadeShadows.get(i).getProjViewMatrix());
+        }
+
+        ensureCapacity();
+        if(gpuCulling){
+            cullGpu(drawBuffers);
+        }else{
+            cullCpu(drawBuffers);
+        }
+    }
+
+    private void setPlanes(int view, Matrix4f matrix){
+        for (int i = 0; i < 6; i++) {
+            matrix.frustumPlane(i, viewPlanes[view * 6 + i]);
+        }
+        if(!gpuCulling){
+            viewMatrices[view] = matrix;
+        }
+    }
+
+    // The streams of the CPU path grow by themselves in begin()
+    private void ensureCapacity(){
+        if(numInstances > instanceCapacity){
+            instanceCapacity = Math.max(numInstances, instanceCapacity * 2);
+            if(gpuCulling){
+                glBindBuffer(GL_SHADER_STORAGE_BUFFER, visibleInstancesBuffer);
+                glBufferData(GL_SHADER_STORAGE_BUFFER, (long) NUM_SECTIONS * instanceCapacity * 4, GL_DYNAMIC_DRAW);
+                glBindBuffer(GL_SHADER_STORAGE_BUFFER, occludedInstancesBuffer);
+                glBufferData(GL_SHADER_STORAGE_BUFFER, (long) instanceCapacity * 4, GL_DYNAMIC_DRAW);
+            }
+        }
+        if(numCommands > commandCapacity){
+            commandCapacity = Math.max(numCommands, commandCapacity * 2);
+            if(gpuCulling){
+                glBindBuffer(GL_SHADER_STORAGE_BUFFER, culledCommandsBuffer);
+                glBufferData(GL_SHADER_STORAGE_BUFFER, (long) NUM_SECTIONS * commandCapacity * DrawBuffers.COMMAND_SIZE, GL_DYNAMIC_DRAW);
+                glBindBuffer(GL_SHADER_STORAGE_BUFFER, instanceCountsBuffer);
+                glBufferData(GL_SHADER_STORAGE_BUFFER, (long) NUM_SECTIONS * commandCapacity * 4, GL_DYNAMIC_DRAW);
+            }else{
+                instanceCounts = new int[NUM_SECTIONS * commandCapacity];
+            }
+        }
+        if(numSlots > slotCapacity){
+            slotCapacity = Math.max(numSlots, slotCapacity * 2);
+            if(gpuCulling){
+                glBindBuffer(GL_SHADER_STORAGE_BUFFER, visibleSlotsBuffer);
+                glBufferData(GL_SHADER_STORAGE_BUFFER, (long) slotCapacity * 4, GL_DYNAMIC_DRAW);
+            }else{
+                visibleSlotsData = new int[slotCapacity];
+            }
+        }
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+    }
+
+    private void cullGpu(DrawBuffers drawBuffers){
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, instanceCountsBuffer);
+        glClearBufferData(GL_SHADER_STORAGE_BUFFER, GL_R32UI, GL_RED_INTEGER, GL_UNSIGNED_INT, (ByteBuffer) null);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, drawCountsBuffer);
+        glClearBufferData(GL_SHADER_STORAGE_BUFFER, GL_R32UI, GL_RED_INTEGER, GL_UNSIGNED_INT, (ByteBuffer) null);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, visibleSlotsBuffer);
+        glClearBufferData(GL_SHADER_STORAGE_BUFFER, GL_R32UI, GL_RED_INTEGER, GL_UNSIGNED_INT, (ByteBuffer) null);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+
+        bindCullBuffers(drawBuffers);
+
+        // First phase, the camera is tested against the pyramid of the previous frame
+        cullShader.bind();
+        for (int i = 0; i < viewPlanes.length; i++) {
+            cullUniforms.setUniform(planes.get(i), viewPlanes[i]);
+        }
+        cullUniforms.setUniform(cullNumInstances, numInstances);
+        cullUniforms.setUniform(cullNumCommands, numCommands);
+        cullUniforms.setUniform(cullFirstView, CAMERA_VIEW);
+        cullUniforms.setUniform(phase, 0);
+        cullUniforms.setUniform(hiZEnabled, hiZValid ? 1 : 0);
+        cullUniforms.setUniform(hiZProjViewMatrix, hiZMatrix);
+        cullUniforms.setUniform(hiZSampler, 0);
+        glActiveTexture(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, hiZBuffer.getTextureID());
+        glDispatchCompute((numInstances + GROUP_SIZE - 1) / GROUP_SIZE, NUM_VIEWS, 1);
+        glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        compact(CAMERA_VIEW, NUM_VIEWS);
+    }
+
+    // Second phase, to be called once the first phase of the camera has been drawn into the GBuffer
+    public void cullOccluded(GBuffer gBuffer, DrawBuffers drawBuffers){
+        if(!gpuCulling || numCommands == 0){
+            return;
+        }
+
+        int[] textureIds = gBuffer.getTextureIds();
+        hiZBuffer.build(textureIds[textureIds.length - 1]);
+        hiZMatrix.set(projViewMatrix);
+        hiZValid = true;
+
+        bindCullBuffers(drawBuffers);
+        cullShader.bind();
+        cullUniforms.setUniform(cullFirstView, OCCLUSION_VIEW);
+        cullUniforms.setUniform(phase, 1);
+        cullUniforms.setUniform(hiZProjViewMatrix, hiZMatrix);
+        glActiveTexture(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, hiZBuffer.getTextureID());
+        glDispatchCompute((numInstances + GROUP_SIZE - 1) / GROUP_SIZE, 1, 1);
+        glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        compact(OCCLUSION_VIEW, 1);
+
+        // Every view has been culled, the slots drawn this frame come back in a frame or two
+        visibleSlotsReadback.copy(visibleSlotsBuffer, numSlots * 4);
+    }
+
+    private void bindCullBuffers(DrawBuffers drawBuffers){
+        drawBuffers.bind();
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, VISIBLE_INSTANCES_BINDING, visibleInstancesBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, CULL_INSTANCES_BINDING, drawBuffers.getCullInstancesBuffer());
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, INSTANCE_COUNTS_BINDING, instanceCountsBuffer);
+        drawBuffers.bindCommands(COMMANDS_BINDING);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, CULLED_COMMANDS_BINDING, culledCommandsBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, DRAW_COUNTS_BINDING, drawCountsBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, OCCLUDED_INSTANCES_BINDING, occludedInstancesBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, VISIBLE_SLOTS_BINDING, visibleSlotsBuffer);
+    }
+
+    private void compact(int firstView, int numViews){
+        compactShader.bind();
+        compactUniforms.setUniform(compactNumInstances, numInstances);
+        compactUniforms.setUniform(compactNumCommands, numCommands);
+        compactUniforms.setUniform(compactNumShortCommands, numShortCommands);
+        compactUniforms.setUniform(compactFirstView, firstView);
+        glDispatchCompute((numCommands + GROUP_SIZE - 1) / GROUP_SIZE, numViews, 1);
+        glMemoryBarrier(GL_COMMAND_BARRIER_BIT | GL_SHADER_STORAGE_BARRIER_BIT);
+        compactShader.unbind();
+    }
+
+    private void cullCpu(DrawBuffers drawBuffers){
+        int[] commands = drawBuffers.getCommands();
+        int[] instanceCommands = drawBuffers.getInstanceCommands();
+        float[] bounds = drawBuffers.getInstanceBounds();
+        ByteBuffer modelMatrices = drawBuffers.getModelMatricesData();
+
+        Arrays.fill(instanceCounts, 0, NUM_SECTIONS * numCommands, 0);
+        Arrays.fill(drawCounts, 0);
+        Arrays.fill(visibleSlotsData, 0, numSlots, 0);
+        // Written straight into this frame's regions, only the entries the draws read are set
+        IntBuffer visibleInstancesData = visibleInstancesStream.begin(NUM_SECTIONS * numInstances * 4).asIntBuffer();
+        IntBuffer culledCommandsData = culledCommandsStream.begin(NUM_SECTIONS * numCommands * DrawBuffers.COMMAND_SIZE).asIntBuffer();
+
+        frustumCuller.setSize(numInstances);
+        for (int i = 0; i < numInstances; i++) {
+            modelMatrix.set(drawBuffers.getModelMatrixIdx(i) * DrawBuffers.MATRIX_SIZE, modelMatrices);
+            int pos = i * 6;
+            modelMatrix.transformAab(bounds[pos], bounds[pos + 1], bounds[pos + 2],
+                bounds[pos + 3], bounds[pos + 4], bounds[pos + 5], worldMin, worldMax);
+            frustumCuller.setBounds(i, worldMin.x, worldMin.y, worldMin.z, worldMax.x, worldMax.y, worldMax.z);
+        }
+
+        int[] visible = frustumCuller.getVisible();
+        for (int view = 0; view < NUM_VIEWS; view++) {
+            frustumCuller.setFrustum(viewMatrices[view]);
+            int visibleCount = frustumCuller.cull();
+            for (int j = 0; j < visibleCount; j++) {
+                int i = visible[j];
+                if(drawBuffers.isInstanceHidden(i)) continue;
+                visibleSlotsData[drawBuffers.getModelMatrixIdx(i)] = 1;
+                int commandIdx = instanceCommands[i];
+                int slot = instanceCounts[view * numCommands + commandIdx]++;
+                visibleInstancesData.put(view * numInstances + commands[commandIdx * 5 + 4] + slot, i);
+            }
+        }
+
+        for (int view = 0; view < NUM_VIEWS; view++) {
+            for (int commandIdx = 0; commandIdx < numCommands; commandIdx++) {
+                int instanceCount = instanceCounts[view * numCommands + commandIdx];
+                if(instanceCount == 0) continue;
+                int list = getList(commandIdx);
+                int start = view * numCommands + getListStart(list);
+                int pos = (start + drawCounts[view * NUM_LISTS + list]++) * 5;
+                int src = commandIdx * 5;
+                culledCommandsData.put(pos, commands[src]);
+                culledCommandsData.put(pos + 1, instanceCount);
+                culledCommandsData.put(pos + 2, commands[src + 2]);
+                culledCommandsData.put(pos + 3, commands[src + 3]);
+                culledCommandsData.put(pos + 4, view * numInstances + commands[src + 4]);
+            }
+        }
+
+        visibleSlots = IntBuffer.wrap(visibleSlotsData, 0, numSlots);
+    }
+
+    // Takes the newest visibility the GPU has sent back, to be called once a frame before wasSlotVisible()
+    public void fetchVisibleSlots(){
+        if(!gpuCulling){
+            return;
+        }
+        ByteBuffer latest = visibleSlotsReadback.getLatest();
+        if(latest == null){
+            return;
+        }
+        // Copied out, the region may be written again while the slots are still being looked up
+        IntBuffer slots = latest.asIntBuffer();
+        int count = slots.remaining();
+        if(count > visibleSlotsData.length){
+            visibleSlotsData = new int[Math.max(count, visibleSlotsData.length * 2)];
+        }
+        slots.get(0, visibleSlotsData, 0, count);
+        visibleSlots = IntBuffer.wrap(visibleSlotsData, 0, count);
+    }
+
+    // Whether an instance of the entity in the slot was drawn in any view when visibility was last known,
+    // true if it never was known, as for entities added since
+    public boolean wasSlotVisible(int slot){
+        return visibleSlots == null || slot >= visibleSlots.limit() || visibleSlots.get(slot) != 0;
+    }
+
+    public void bind(){
+        if(gpuCulling){
+            glBindBufferBase(GL_SHADER_STORAGE_BUFFER, VISIBLE_INSTANCES_BINDING, visibleInstancesBuffer);
+        }else{
+            visibleInstancesStream.bindRange(GL_SHADER_STORAGE_BUFFER, VISIBLE_INSTANCES_BINDING, (long) NUM_SECTIONS * numInstances * 4);
+        }
+    }
+
+    // To be called once every pass of the frame has been submitted, the regions the CPU path wrote are fenced
+    public void endFrame(){
+        if(!gpuCulling){
+            visibleInstancesStream.end();
+            culledCommandsStream.end();
+        }
+    }
+
+    // Expects the RenderBuffers VAO or depth VAO to be bound
+    public void draw(int view){
+        draw(view, 0, numShortCommands);
+        draw(view, 1, numCommands - numShortCommands);
+    }
+
+    private int getList(int commandIdx){
+        return commandIdx < numShortCommands ? 0 : 1;
+    }
+
+    private int getListStart(int list){
+        return list == 0 ? 0 : numShortCommands;
+    }
+
+    private void draw(int view, int list, int maxDrawCount){
+        if(maxDrawCount == 0){
+            return;
+        }
+        long indirect = (long) (view * numCommands + getListStart(list)) * DrawBuffers.COMMAND_SIZE;
+        int indexType = LIST_INDEX_TYPES[list];
+        if(!gpuCulling){
+            glBindBuffer(GL_DRAW_INDIRECT_BUFFER, culledCommandsStream.getBufferID());
+            indirect += culledCommandsStream.getOffset();
+            glMultiDrawElementsIndirect(GL_TRIANGLES, indexType, indirect, drawCounts[view * NUM_LISTS + list], 0);
+            return;
+        }
+
+        long drawCount = (long) (view * NUM_LISTS + list) * 4;
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, culledCommandsBuffer);
+        glBindBuffer(GL_PARAMETER_BUFFER, drawCountsBuffer);
+        if(coreDrawCount){
+            glMultiDrawElementsIndirectCount(GL_TRIANGLES, indexType, indirect, drawCount, maxDrawCount, 0);
+        }else{
+            ARBIndirectParameters.glMultiDrawElementsIndirectCountARB(GL_TRIANGLES, indexType, indirect, drawCount, maxDrawCount, 0);
+        }
+        glBindBuffer(GL_PARAMETER_BUFFER, 0);
+    }
+
+    public boolean isGpuCulling(){
+        return gpuCulling;
+    }
+
+    public boolean isOcclusionCulling(){
+        return gpuCulling;
+    }
+
+}
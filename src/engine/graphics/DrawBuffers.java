@@ -0,0 +1,581 @@
+package src.engine.graphics;
+
+import org.joml.Matrix4f;
+import org.lwjgl.system.MemoryUtil;
+import src.engine.Utils;
+import src.engine.scene.*;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/*
+ * Indirect draw commands and the per-instance data they index (draw elements and model matrices), shared by
+ * the scene and shadow passes. Draw elements, model matrices and commands change every frame, so they are
+ * written into StreamBuffers and never wait for the GPU to finish reading an earlier frame.
+ * Static instances come first (model, mesh, entity) followed by animated ones (model, entity, mesh) and
+ * crowd ones (model, mesh, entity), which is the order of the baseInstance values in the command buffer.
+ * The command buffer is the template CullRender compacts the visible draws from. It holds the commands of
+ * meshes with 16 bit indices first and those with 32 bit indices after, each in the instance order above. Crowd instances also have the clip they play from the
+ * VertexAnimationTexture, read by the vertex shaders at their index minus the first crowd instance.
+ */
+public class DrawBuffers {
+
+    public static final int DRAW_ELEMENTS_BINDING = 0;
+    public static final int MODEL_MATRICES_BINDING = 1;
+    // Free while drawing, culling uses this binding for its instance counts
+    public static final int CROWD_INSTANCES_BINDING = 4;
+
+    public static final int COMMAND_SIZE = 5 * 4;
+    // modelMatrixIdx, materialIdx, selected and hidden, std430
+    public static final int DRAW_ELEMENT_SIZE = 4 * 4;
+    public static final int MATRIX_SIZE = 4 * 4 * 4;
+    // aabbMin, commandIdx, aabbMax and padding, std430
+    public static final int CULL_INSTANCE_SIZE = 8 * 4;
+    // vatOffset, numVertices, numFrames, framesPerSecond, phase, speed and padding, std430
+    public static final int CROWD_INSTANCE_SIZE = 8 * 4;
+    // vatOffset of the instances drawn in their binding pose
+    private static final int NO_CLIP = -1;
+    // A float keeps sub-millisecond steps up to about an hour, the crowd instances are rewritten well before that
+    private static final double CROWD_REBASE_SECONDS = 60;
+    // Differs from every handle, including INVALID_HANDLE for free slots
+    private static final int NOT_UPLOADED = EntityRegistry.INVALID_HANDLE - 1;
+
+    private int animDrawCount;
+    private int staticDrawCount;
+    private int crowdDrawCount;
+    private int shortIndexDrawCount;
+    // Command of each animated draw, in the order updateAnimSources walks them
+    private int[] animCommands;
+    private int staticInstanceCount;
+    private int firstCrowdInstance;
+    // Crowd clock when the crowd instances were last written, shaders get the time since then so it stays precise as a float
+    private double crowdEpoch;
+    // Per crowd entity, in model and entity order, what its instances were last written from
+    private AnimationData[] crowdData;
+    private int[] crowdPlaybackVersions;
+    private VertexAnimationTexture.BakedClip[] crowdClips;
+    private int crowdBakedClipCount;
+    private ByteBuffer crowdInstanceData;
+    private int numInstances;
+    private StreamBuffer commandStream;
+    private int[] commands;
+    private ByteBuffer commandsData;
+
+    private StreamBuffer drawElementsStream;
+    private StreamBuffer modelMatricesStream;
+    private int cullInstancesBuffer;
+    private int crowdInstancesBuffer;
+    private ByteBuffer drawElementsData;
+    private ByteBuffer modelMatricesData;
+    // Kept on the CPU for the culling fallback: the command and local bounds of every instance
+    private int[] instanceCommands;
+    private float[] instanceBounds;
+
+    private EntityRegistry entityRegistry;
+    private int modelMapSize;
+    private int registryVersion;
+
+    // Model matrices are indexed by entity slot. The CPU copy and each stream region keep, per slot, the handle
+    // and transform version they were last written with, so a region only catches up on what changed since it was last used
+    private int[] cpuHandles;
+    private int[] cpuVersions;
+    private int[][] uploadedHandles;
+    private int[][] uploadedVersions;
+
+    public DrawBuffers(){
+        entityRegistry = null;
+        modelMapSize = 0;
+        registryVersion = 0;
+        cpuHandles = new int[0];
+        cpuVersions = new int[0];
+        uploadedHandles = new int[StreamBuffer.NUM_REGIONS][0];
+        uploadedVersions = new int[StreamBuffer.NUM_REGIONS][0];
+
+        commands = new int[0];
+        animCommands = new int[0];
+        crowdData = new AnimationData[0];
+        crowdPlaybackVersions = new int[0];
+        crowdClips = new VertexAnimationTexture.BakedClip[0];
+        instanceCommands = new int[0];
+        instanceBounds = new float[0];
+
+        commandStream = new StreamBuffer(COMMAND_SIZE * 64);
+        drawElementsStream = new StreamBuffer(DRAW_ELEMENT_SIZE * 64);
+        modelMatricesStream = new StreamBuffer(MATRIX_SIZE * 64);
+        cullInstancesBuffer = glGenBuffers();
+        crowdInstancesBuffer = glGenBuffers();
+        drawElementsData = MemoryUtil.memAlloc(DRAW_ELEMENT_SIZE * 64);
+        modelMatricesData = MemoryUtil.memAlloc(MATRIX_SIZE * 64);
+        commandsData = MemoryUtil.memAlloc(COMMAND_SIZE * 64);
+        crowdInstanceData = MemoryUtil.memAlloc(CROWD_INSTANCE_SIZE);
+    }
+
+    public void cleanup(){
+        commandStream.cleanup();
+        drawElementsStream.cleanup();
+        modelMatricesStream.cleanup();
+        glDeleteBuffers(cullInstancesBuffer);
+        glDeleteBuffers(crowdInstancesBuffer);
+        MemoryUtil.memFree(drawElementsData);
+        MemoryUtil.memFree(modelMatricesData);
+        MemoryUtil.memFree(commandsData);
+        MemoryUtil.memFree(crowdInstanceData);
+    }
+
+    public void bind(){
+        drawElementsStream.bindRange(GL_SHADER_STORAGE_BUFFER, DRAW_ELEMENTS_BINDING, (long) numInstances * DRAW_ELEMENT_SIZE);
+        modelMatricesStream.bindRange(GL_SHADER_STORAGE_BUFFER, MODEL_MATRICES_BINDING, (long) entityRegistry.getSlotCount() * MATRIX_SIZE);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, CROWD_INSTANCES_BINDING, crowdInstancesBuffer);
+    }
+
+    public void bindCommands(int index){
+        commandStream.bindRange(GL_SHADER_STORAGE_BUFFER, index, (long) getCommandCount() * COMMAND_SIZE);
+    }
+
+    // To be called once every pass of the frame has been submitted, the regions written this frame are fenced
+    public void endFrame(){
+        commandStream.end();
+        drawElementsStream.end();
+        modelMatricesStream.end();
+    }
+
+    public void update(Scene scene){
+
+        if(scene.getModelMap().size() != modelMapSize || scene.getEntityRegistry().getVersion() != registryVersion){
+            setupData(scene);
+        }
+        if(scene.getCrowdTime() - crowdEpoch > CROWD_REBASE_SECONDS){
+            setupCrowdInstances(scene);
+        }else{
+            updateCrowdInstances(scene);
+        }
+
+        updateModelMatrices();
+
+        // Draw elements
+        int selectedHandle = scene.getSelectedHandle();
+        drawElementsData = Utils.ensureCapacity(drawElementsData, numInstances * DRAW_ELEMENT_SIZE);
+        drawElementsData.clear();
+
+        for (Model model : scene.getStaticModelList()) {
+            List<Entity> entities = model.getEntityList();
+            int numMeshes = model.getMeshDrawDataList().size();
+            for (int i = 0; i < numMeshes; i++) {
+                for (Entity entity : entities) {
+                    putDrawElement(entity, entity.getMeshDrawDataList().get(i), selectedHandle);
+                }
+            }
+        }
+
+        for (Model model : scene.getAnimModelList()) {
+            for (Entity entity : model.getEntityList()) {
+                for (RenderBuffers.MeshDrawData meshDrawData : entity.getMeshDrawDataList()) {
+                    putDrawElement(entity, meshDrawData, selectedHandle);
+                }
+            }
+        }
+
+        for (Model model : scene.getCrowdModelList()) {
+            List<Entity> entities = model.getEntityList();
+            int numMeshes = model.getMeshDrawDataList().size();
+            for (int i = 0; i < numMeshes; i++) {
+                for (Entity entity : entities) {
+                    putDrawElement(entity, entity.getMeshDrawDataList().get(i), selectedHandle);
+                }
+            }
+        }
+        drawElementsData.flip();
+
+        drawElementsStream.write(drawElementsData);
+
+    }
+
+    // Points the animated commands at the skinned vertices each entity is drawn with this frame and streams the commands
+    public void updateAnimSources(Scene scene, AnimationRender animationRender){
+        int animDrawIdx = 0;
+        for (Model model : scene.getAnimModelList()) {
+            for (Entity entity : model.getEntityList()) {
+                Entity source = animationRender.getDrawSource(entity);
+                List<RenderBuffers.MeshDrawData> sourceMeshes = (source == null ? entity : source).getMeshDrawDataList();
+                for (RenderBuffers.MeshDrawData meshDrawData : sourceMeshes) {
+                    commands[animCommands[animDrawIdx] * 5 + 3] = meshDrawData.offset();
+                    animDrawIdx++;
+                }
+            }
+        }
+
+        commandsData = Utils.ensureCapacity(commandsData, commands.length * 4);
+        commandsData.clear();
+        commandsData.asIntBuffer().put(commands);
+        commandsData.limit(commands.length * 4);
+        commandStream.write(commandsData);
+    }
+
+    // The CPU copy and the region written this frame only get the slots whose entity changed since they last saw it
+    private void updateModelMatrices(){
+        int numEntities = entityRegistry.getSlotCount();
+        if(numEntities * MATRIX_SIZE > modelMatricesStream.getRegionSize()){
+            // The stream gets a new, empty storage, every slot goes up again
+            for (int[] handles : uploadedHandles) {
+                Arrays.fill(handles, NOT_UPLOADED);
+            }
+        }
+        ByteBuffer region = modelMatricesStream.begin(numEntities * MATRIX_SIZE);
+        int[] regionHandles = uploadedHandles[modelMatricesStream.getRegion()];
+        int[] regionVersions = uploadedVersions[modelMatricesStream.getRegion()];
+
+        for (int i = 0; i < numEntities; i++) {
+            Entity entity = entityRegistry.getBySlot(i);
+            // Free slots are not drawn, they keep whatever they held
+            if(entity == null) continue;
+            int handle = entity.getHandle();
+            int version = entity.getTransformVersion();
+            if(cpuHandles[i] != handle || cpuVersions[i] != version){
+                entity.getModelMatrix().get(i * MATRIX_SIZE, modelMatricesData);
+                cpuHandles[i] = handle;
+                cpuVersions[i] = version;
+            }
+            if(regionHandles[i] != handle || regionVersions[i] != version){
+                MemoryUtil.memCopy(MemoryUtil.memAddress(modelMatricesData, i * MATRIX_SIZE),
+                    MemoryUtil.memAddress(region, i * MATRIX_SIZE), MATRIX_SIZE);
+                regionHandles[i] = handle;
+                regionVersions[i] = version;
+            }
+        }
+    }
+
+    private void putDrawElement(Entity entity, RenderBuffers.MeshDrawData meshDrawData, int selectedHandle){
+        drawElementsData.putInt(entity.getSlot());
+        drawElementsData.putInt(meshDrawData.materialIdx());
+        drawElementsData.putInt(entity.getHandle() == selectedHandle ? 1 : 0);
+        // Culling drops hidden instances so the command template stays as it is when visibility changes
+        drawElementsData.putInt(entity.isVisible() ? 0 : 1);
+    }
+
+    public void setupData(Scene scene) {
+        setupEntitiesData(scene);
+        setupCommandBuffer(scene);
+        setupCrowdInstances(scene);
+    }
+
+    // Slots are stable, so only the arrays grow here and slots keep what they last uploaded
+    private void setupEntitiesData(Scene scene) {
+        entityRegistry = scene.getEntityRegistry();
+        int numSlots = entityRegistry.getSlotCount();
+        if(numSlots > cpuHandles.length){
+            int oldLength = cpuHandles.length;
+            cpuHandles = Arrays.copyOf(cpuHandles, numSlots);
+            cpuVersions = Arrays.copyOf(cpuVersions, numSlots);
+            Arrays.fill(cpuHandles, oldLength, numSlots, NOT_UPLOADED);
+            for (int i = 0; i < StreamBuffer.NUM_REGIONS; i++) {
+                uploadedHandles[i] = Arrays.copyOf(uploadedHandles[i], numSlots);
+                uploadedVersions[i] = Arrays.copyOf(uploadedVersions[i], numSlots);
+                Arrays.fill(uploadedHandles[i], oldLength, numSlots, NOT_UPLOADED);
+            }
+            modelMatricesData = Utils.ensureCapacity(modelMatricesData, numSlots * MATRIX_SIZE);
+            modelMatricesData.clear();
+        }
+
+        modelMapSize = scene.getModelMap().size();
+        registryVersion = entityRegistry.getVersion();
+    }
+
+    private void setupCommandBuffer(Scene scene) {
+        List<Model> staticModels = scene.getStaticModelList();
+        List<Model> animModels = scene.getAnimModelList();
+        List<Model> crowdModels = scene.getCrowdModelList();
+
+        // Draws in instance order, numbered as commands once their index type is known
+        List<RenderBuffers.MeshDrawData> draws = new ArrayList<>();
+        List<Integer> drawInstanceCounts = new ArrayList<>();
+
+        // Entities of the same model share its vertices, so each mesh is drawn once with an instance per entity
+        staticDrawCount = 0;
+        staticInstanceCount = 0;
+        for (Model model : staticModels) {
+            int numEntities = model.getEntityList().size();
+            if(numEntities == 0) continue;
+            for (RenderBuffers.MeshDrawData meshDrawData : model.getMeshDrawDataList()) {
+                draws.add(meshDrawData);
+                drawInstanceCounts.add(numEntities);
+                staticDrawCount++;
+                staticInstanceCount += numEntities;
+            }
+        }
+
+        // Every animated entity has its own skinned vertices so each mesh is a single instance
+        animDrawCount = 0;
+        for (Model model : animModels) {
+            for(Entity entity : model.getEntityList())
+                for (RenderBuffers.MeshDrawData meshDrawData : entity.getMeshDrawDataList()) {
+                    draws.add(meshDrawData);
+                    drawInstanceCounts.add(1);
+                    animDrawCount++;
+                }
+        }
+
+        // Crowds are instanced like static models, the vertex shader poses them from the baked clips
+        crowdDrawCount = 0;
+        int crowdInstanceCount = 0;
+        for (Model model : crowdModels) {
+            int numEntities = model.getEntityList().size();
+            if(numEntities == 0) continue;
+            for (RenderBuffers.MeshDrawData meshDrawData : model.getMeshDrawDataList()) {
+                draws.add(meshDrawData);
+                drawInstanceCounts.add(numEntities);
+                crowdDrawCount++;
+                crowdInstanceCount += numEntities;
+            }
+        }
+
+        int numCommands = draws.size();
+        firstCrowdInstance = staticInstanceCount + animDrawCount;
+        numInstances = firstCrowdInstance + crowdInstanceCount;
+        commands = new int[numCommands * 5];
+        instanceCommands = new int[numInstances];
+        instanceBounds = new float[numInstances * 6];
+        animCommands = new int[animDrawCount];
+
+        shortIndexDrawCount = 0;
+        for (RenderBuffers.MeshDrawData meshDrawData : draws) {
+            if(meshDrawData.shortIndices()) shortIndexDrawCount++;
+        }
+
+        // Commands with 16 bit indices come first so each index type is drawn as one list
+        int shortCommandIdx = 0;
+        int intCommandIdx = shortIndexDrawCount;
+        int baseInstance = 0;
+        for (int drawIdx = 0; drawIdx < numCommands; drawIdx++) {
+            RenderBuffers.MeshDrawData meshDrawData = draws.get(drawIdx);
+            int instanceCount = drawInstanceCounts.get(drawIdx);
+            int commandIdx = meshDrawData.shortIndices() ? shortCommandIdx++ : intCommandIdx++;
+            putCommand(commandIdx, meshDrawData, instanceCount, baseInstance);
+            for (int i = 0; i < instanceCount; i++) {
+                putCullInstance(baseInstance + i, commandIdx, meshDrawData);
+            }
+            if(drawIdx >= staticDrawCount && drawIdx < staticDrawCount + animDrawCount){
+                animCommands[drawIdx - staticDrawCount] = commandIdx;
+            }
+            baseInstance += instanceCount;
+        }
+
+        // Commands are streamed every frame by updateAnimSources, only the cull instances go up here
+        ByteBuffer data = MemoryUtil.memAlloc(numInstances * CULL_INSTANCE_SIZE);
+        for (int i = 0; i < numInstances; i++) {
+            data.putFloat(instanceBounds[i * 6]);
+            data.putFloat(instanceBounds[i * 6 + 1]);
+            data.putFloat(instanceBounds[i * 6 + 2]);
+            data.putInt(instanceCommands[i]);
+            data.putFloat(instanceBounds[i * 6 + 3]);
+            data.putFloat(instanceBounds[i * 6 + 4]);
+            data.putFloat(instanceBounds[i * 6 + 5]);
+            data.putInt(0);
+        }
+        data.flip();
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, cullInstancesBuffer);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, data, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+
+        MemoryUtil.memFree(data);
+    }
+
+    // Crowd entities advance their own animation time, so starting each from it at the epoch keeps them where they were
+    private void setupCrowdInstances(Scene scene) {
+        crowdEpoch = scene.getCrowdTime();
+        int numCrowdEntities = 0;
+        for (Model model : scene.getCrowdModelList()) {
+            numCrowdEntities += model.getEntityList().size();
+        }
+        if(numCrowdEntities > crowdData.length){
+            crowdData = new AnimationData[numCrowdEntities];
+            crowdPlaybackVersions = new int[numCrowdEntities];
+            crowdClips = new VertexAnimationTexture.BakedClip[numCrowdEntities];
+        }
+        crowdBakedClipCount = countBakedClips(scene);
+        int numCrowdInstances = numInstances - firstCrowdInstance;
+        if(numCrowdInstances == 0){
+            return;
+        }
+        ByteBuffer data = MemoryUtil.memAlloc(numCrowdInstances * CROWD_INSTANCE_SIZE);
+        int crowdIdx = 0;
+        for (Model model : scene.getCrowdModelList()) {
+            List<Entity> entities = model.getEntityList();
+            for (int j = 0; j < entities.size(); j++) {
+                trackCrowdEntity(crowdIdx + j, model, entities.get(j).getAnimationData());
+            }
+            int numMeshes = model.getMeshDrawDataList().size();
+            for (int i = 0; i < numMeshes; i++) {
+                for (int j = 0; j < entities.size(); j++) {
+                    putCrowdInstance(data, scene, crowdClips[crowdIdx + j], i, entities.get(j).getAnimationData());
+                }
+            }
+            crowdIdx += entities.size();
+        }
+        data.flip();
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, crowdInstancesBuffer);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, data, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+        MemoryUtil.memFree(data);
+    }
+
+    // Rewrites the instances of the crowd entities whose animation data, clip, speed or place in it jumped
+    private void updateCrowdInstances(Scene scene) {
+        if(numInstances == firstCrowdInstance){
+            return;
+        }
+        // A clip baked since is only looked up again when the count of baked clips moves
+        int bakedClipCount = countBakedClips(scene);
+        boolean newClips = bakedClipCount != crowdBakedClipCount;
+        crowdBakedClipCount = bakedClipCount;
+
+        int crowdIdx = 0;
+        int firstInstance = 0;
+        for (Model model : scene.getCrowdModelList()) {
+            List<Entity> entities = model.getEntityList();
+            int numMeshes = model.getMeshDrawDataList().size();
+            for (int j = 0; j < entities.size(); j++) {
+                int k = crowdIdx + j;
+                AnimationData animationData = entities.get(j).getAnimationData();
+                boolean changed = animationData != crowdData[k]
+                    || (animationData != null && animationData.getPlaybackVersion() != crowdPlaybackVersions[k]);
+                if(!changed && !newClips) continue;
+                VertexAnimationTexture.BakedClip clip = crowdClips[k];
+                trackCrowdEntity(k, model, animationData);
+                if(!changed && clip == crowdClips[k]) continue;
+
+                glBindBuffer(GL_SHADER_STORAGE_BUFFER, crowdInstancesBuffer);
+                for (int i = 0; i < numMeshes; i++) {
+                    crowdInstanceData.clear();
+                    putCrowdInstance(crowdInstanceData, scene, crowdClips[k], i, animationData);
+                    crowdInstanceData.flip();
+                    long instance = firstInstance + (long) i * entities.size() + j;
+                    glBufferSubData(GL_SHADER_STORAGE_BUFFER, instance * CROWD_INSTANCE_SIZE, crowdInstanceData);
+                }
+                glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+            }
+            crowdIdx += entities.size();
+            firstInstance += numMeshes * entities.size();
+        }
+    }
+
+    private void trackCrowdEntity(int crowdIdx, Model model, AnimationData animationData){
+        crowdData[crowdIdx] = animationData;
+        crowdPlaybackVersions[crowdIdx] = animationData == null ? 0 : animationData.getPlaybackVersion();
+        crowdClips[crowdIdx] = animationData == null ? null : model.getBakedClip(animationData.getCurrentAnimation());
+    }
+
+    private static int countBakedClips(Scene scene){
+        int count = 0;
+        for (Model model : scene.getCrowdModelList()) {
+            count += model.getBakedClipCount();
+        }
+        return count;
+    }
+
+    // The phase is where the entity is in its clip when the shaders' crowd time is 0, at the epoch
+    private void putCrowdInstance(ByteBuffer data, Scene scene, VertexAnimationTexture.BakedClip clip, int meshIdx, AnimationData animationData){
+        if(clip == null){
+            data.putInt(NO_CLIP).putInt(0).putInt(0).putFloat(0).putFloat(0).putFloat(0);
+        }else{
+            double length = clip.numFrames() / clip.framesPerSecond();
+            double phase = (animationData.getTime() - (scene.getCrowdTime() - crowdEpoch) * animationData.getSpeed()) % length;
+            data.putInt(clip.meshOffsets()[meshIdx]);
+            data.putInt(clip.meshVertices()[meshIdx]);
+            data.putInt(clip.numFrames());
+            data.putFloat(clip.framesPerSecond());
+            data.putFloat((float) (phase < 0 ? phase + length : phase));
+            data.putFloat(animationData.getSpeed());
+        }
+        data.putInt(0);
+        data.putInt(0);
+    }
+
+    private void putCommand(int commandIdx, RenderBuffers.MeshDrawData meshDrawData, int instanceCount, int baseInstance){
+        int pos = commandIdx * 5;
+        // count
+        commands[pos] = meshDrawData.vertices();
+        commands[pos + 1] = instanceCount;
+        // firstIndex
+        commands[pos + 2] = meshDrawData.vertexOffset();
+        // baseVertex
+        commands[pos + 3] = meshDrawData.offset();
+        commands[pos + 4] = baseInstance;
+    }
+
+    private void putCullInstance(int instanceIdx, int commandIdx, RenderBuffers.MeshDrawData meshDrawData){
+        instanceCommands[instanceIdx] = commandIdx;
+        int pos = instanceIdx * 6;
+        instanceBounds[pos] = meshDrawData.aabbMin().x;
+        instanceBounds[pos + 1] = meshDrawData.aabbMin().y;
+        instanceBounds[pos + 2] = meshDrawData.aabbMin().z;
+        instanceBounds[pos + 3] = meshDrawData.aabbMax().x;
+        instanceBounds[pos + 4] = meshDrawData.aabbMax().y;
+        instanceBounds[pos + 5] = meshDrawData.aabbMax().z;
+    }
+
+    public int getAnimDrawCount(){
+        return animDrawCount;
+    }
+
+    public int getStaticDrawCount(){
+        return staticDrawCount;
+    }
+
+    // Commands below this index use 16 bit indices, the rest 32 bit ones
+    public int getShortIndexDrawCount(){
+        return shortIndexDrawCount;
+    }
+
+    public int getCrowdDrawCount(){
+        return crowdDrawCount;
+    }
+
+    public int getFirstCrowdInstance(){
+        return firstCrowdInstance;
+    }
+
+    // Seconds since the crowd epoch, what the vertex shaders expect as crowdTime
+    public float getCrowdTime(Scene scene){
+        return (float) (scene.getCrowdTime() - crowdEpoch);
+    }
+
+    public int getCommandCount(){
+        return staticDrawCount + animDrawCount + crowdDrawCount;
+    }
+
+    public int getInstanceCount(){
+        return numInstances;
+    }
+
+    public int getCullInstancesBuffer(){
+        return cullInstancesBuffer;
+    }
+
+    // CPU side copies, read by the culling fallback
+    public int[] getCommands(){
+        return commands;
+    }
+
+    public int[] getInstanceCommands(){
+        return instanceCommands;
+    }
+
+    public float[] getInstanceBounds(){
+        return instanceBounds;
+    }
+
+    public ByteBuffer getModelMatricesData(){
+        return modelMatricesData;
+    }
+
+    public int getModelMatrixIdx(int instanceIdx){
+        return drawElementsData.getInt(instanceIdx * DRAW_ELEMENT_SIZE);
+    }
+
+    public boolean isInstanceHidden(int instanceIdx){
+        return drawElementsData.getInt(instanceIdx * DRAW_ELEMENT_SIZE + 12) != 0;
+    }
+
+}
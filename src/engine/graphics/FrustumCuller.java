@@ -0,0 +1,204 @@
+package src.engine.graphics;
+
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * CPU frustum culling over world space boxes kept as a structure of arrays. Boxes are culled in parallel
+ * chunks on a fork-join pool and the indices of the visible ones end up, in order, at the start of the
+ * visible list. Arrays and tasks are reused between calls so culling does not allocate once the store
+ * has grown to its size. It holds no GL state so it can be exercised without a context.
+ */
+public class FrustumCuller {
+
+    // Below this many boxes per chunk forking costs more than it saves
+    private static final int MIN_CHUNK_SIZE = 2048;
+
+    private final ForkJoinPool pool;
+    private final int maxChunks;
+
+    private float[] minX;
+    private float[] minY;
+    private float[] minZ;
+    private float[] maxX;
+    private float[] maxY;
+    private float[] maxZ;
+    private int size;
+
+    private int[] visible;
+    private int visibleCount;
+
+    // a, b, c, d of the six planes, normals pointing inwards
+    private final float[] planes;
+    private final Vector4f plane;
+
+    private final CullTask[] tasks;
+    private final int[] chunkCounts;
+    private final CullAll cullAll;
+
+    public FrustumCuller(){
+        this(ForkJoinPool.commonPool());
+    }
+
+    public FrustumCuller(ForkJoinPool pool){
+        this.pool = pool;
+        maxChunks = pool.getParallelism() * 4;
+        planes = new float[6 * 4];
+        plane = new Vector4f();
+        tasks = new CullTask[maxChunks];
+        for (int i = 0; i < maxChunks; i++) {
+            tasks[i] = new CullTask();
+        }
+        chunkCounts = new int[maxChunks];
+        cullAll = new CullAll();
+        setSize(0);
+    }
+
+    // Keeps the current bounds up to the new size
+    public void setSize(int newSize){
+        if(minX == null || newSize > minX.length){
+            int capacity = Math.max(newSize, minX == null ? 64 : minX.length * 2);
+            minX = grow(minX, capacity);
+            minY = grow(minY, capacity);
+            minZ = grow(minZ, capacity);
+            maxX = grow(maxX, capacity);
+            maxY = grow(maxY, capacity);
+            maxZ = grow(maxZ, capacity);
+            int[] newVisible = new int[capacity];
+            if(visible != null){
+                System.arraycopy(visible, 0, newVisible, 0, visible.length);
+            }
+            visible = newVisible;
+        }
+        size = newSize;
+    }
+
+    private static float[] grow(float[] array, int capacity){
+        float[] newArray = new float[capacity];
+        if(array != null){
+            System.arraycopy(array, 0, newArray, 0, array.length);
+        }
+        return newArray;
+    }
+
+    public void setBounds(int idx, float minX, float minY, float minZ, float maxX, float maxY, float maxZ){
+        this.minX[idx] = minX;
+        this.minY[idx] = minY;
+        this.minZ[idx] = minZ;
+        this.maxX[idx] = maxX;
+        this.maxY[idx] = maxY;
+        this.maxZ[idx] = maxZ;
+    }
+
+    public void setFrustum(Matrix4f projViewMatrix){
+        for (int i = 0; i < 6; i++) {
+            projViewMatrix.frustumPlane(i, plane);
+            planes[i * 4] = plane.x;
+            planes[i * 4 + 1] = plane.y;
+            planes[i * 4 + 2] = plane.z;
+            planes[i * 4 + 3] = plane.w;
+        }
+    }
+
+    // Returns the number of visible boxes, their indices are the first entries of getVisible()
+    public int cull(){
+        int numChunks = Math.min(maxChunks, (size + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE);
+        if(numChunks <= 1){
+            visibleCount = cullRange(0, size);
+            return visibleCount;
+        }
+
+        int chunkSize = (size + numChunks - 1) / numChunks;
+        for (int i = 0; i < numChunks; i++) {
+            CullTask task = tasks[i];
+            task.reinitialize();
+            task.chunk = i;
+            task.start = i * chunkSize;
+            task.end = Math.min(size, task.start + chunkSize);
+        }
+        cullAll.reinitialize();
+        cullAll.numChunks = numChunks;
+        pool.invoke(cullAll);
+
+        // Every chunk wrote its survivors from its own start, move them down so the list is contiguous
+        int count = chunkCounts[0];
+        for (int i = 1; i < numChunks; i++) {
+            System.arraycopy(visible, tasks[i].start, visible, count, chunkCounts[i]);
+            count += chunkCounts[i];
+        }
+        visibleCount = count;
+        return visibleCount;
+    }
+
+    private int cullRange(int start, int end){
+        float[] planes = this.planes;
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            boolean inside = true;
+            for (int p = 0; p < 24; p += 4) {
+                float a = planes[p];
+                float b = planes[p + 1];
+                float c = planes[p + 2];
+                // Corner furthest along the plane normal
+                float x = a > 0 ? maxX[i] : minX[i];
+                float y = b > 0 ? maxY[i] : minY[i];
+                float z = c > 0 ? maxZ[i] : minZ[i];
+                if(a * x + b * y + c * z + planes[p + 3] < 0){
+                    inside = false;
+                    break;
+                }
+            }
+            if(inside){
+                visible[start + count] = i;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int[] getVisible(){
+        return visible;
+    }
+
+    public int getVisibleCount(){
+        return visibleCount;
+    }
+
+    public int getSize(){
+        return size;
+    }
+
+    // Only run inside the pool, never serialized
+    @SuppressWarnings("serial")
+    private final class CullTask extends RecursiveAction {
+        int chunk;
+        int start;
+        int end;
+
+        @Override
+        protected void compute(){
+            chunkCounts[chunk] = cullRange(start, end);
+        }
+    }
+
+    // Only run inside the pool, never serialized
+    @SuppressWarnings("serial")
+    private final class CullAll extends RecursiveAction {
+        int numChunks;
+
+        @Override
+        protected void compute(){
+            for (int i = 1; i < numChunks; i++) {
+                tasks[i].fork();
+            }
+            tasks[0].invoke();
+            for (int i = 1; i < numChunks; i++) {
+                tasks[i].join();
+            }
+        }
+    }
+
+}
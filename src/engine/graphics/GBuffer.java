@@ -18,6 +18,10 @@ public class GBuffer {
     private int[] textureIDs;
 
     public GBuffer(Window window){
+        this(window.getWidth(), window.getHeight());
+    }
+
+    public GBuffer(int width, int height){
 
         gBufferID = glGenFramebuffers();
         glBindFramebuffer(GL_DRAW_FRAMEBUFFER, gBufferID);
@@ -25,8 +29,8 @@ public class GBuffer {
         textureIDs = new int[TOTAL_TEXTURES];
         glGenTextures(textureIDs);
 
-        width = window.getWidth();
-        height = window.getHeight();
+        this.width = width;
+        this.height = height;
 
         for(int i = 0; i < TOTAL_TEXTURES; i++){
             
@@ -0,0 +1,130 @@
+package src.engine.graphics;
+
+import java.nio.*;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/*
+ * GL buffers sub-allocated through one RangeAllocator. Growth is geometric and done on the GPU with
+ * glCopyBufferSubData, so adding data costs time in proportion to that data and never reads the buffer back.
+ * Offsets are expressed in units, and an arena may hold several buffers with a unit size each that share every
+ * offset, for streams of the same elements laid out apart. The methods without a buffer index use the first.
+ * The buffer ids change when the arena grows, so VAOs and SSBO bindings have to be refreshed with
+ * getBufferID() after allocating.
+ */
+public class GeometryArena {
+
+    private static final int MIN_CAPACITY = 1024;
+
+    private final RangeAllocator allocator;
+    private final int[] unitSizes;
+    private final int[] bufferIDs;
+
+    public GeometryArena(int unitSize){
+        this(unitSize, MIN_CAPACITY);
+    }
+
+    public GeometryArena(int unitSize, int initialCapacity){
+        this(new int[]{ unitSize }, initialCapacity);
+    }
+
+    public GeometryArena(int[] unitSizes, int initialCapacity){
+        this.unitSizes = unitSizes.clone();
+        allocator = new RangeAllocator(Math.max(MIN_CAPACITY, initialCapacity));
+        bufferIDs = new int[unitSizes.length];
+        for (int i = 0; i < bufferIDs.length; i++) {
+            bufferIDs[i] = glGenBuffers();
+            glBindBuffer(GL_COPY_WRITE_BUFFER, bufferIDs[i]);
+            glBufferData(GL_COPY_WRITE_BUFFER, (long) allocator.getCapacity() * unitSizes[i], GL_DYNAMIC_DRAW);
+        }
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    public void cleanup(){
+        glDeleteBuffers(bufferIDs);
+    }
+
+    public int allocate(int size){
+        int offset = allocator.allocate(size);
+        if(offset == RangeAllocator.NO_SPACE){
+            grow(RangeAllocator.nextCapacity(allocator.getCapacity(), size));
+            offset = allocator.allocate(size);
+        }
+        return offset;
+    }
+
+    public void free(int offset, int size){
+        allocator.free(offset, size);
+    }
+
+    private void grow(int newCapacity){
+        for (int i = 0; i < bufferIDs.length; i++) {
+            int newBufferID = glGenBuffers();
+            glBindBuffer(GL_COPY_WRITE_BUFFER, newBufferID);
+            glBufferData(GL_COPY_WRITE_BUFFER, (long) newCapacity * unitSizes[i], GL_DYNAMIC_DRAW);
+            glBindBuffer(GL_COPY_READ_BUFFER, bufferIDs[i]);
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 0, 0, (long) allocator.getCapacity() * unitSizes[i]);
+            glDeleteBuffers(bufferIDs[i]);
+            bufferIDs[i] = newBufferID;
+        }
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        allocator.grow(newCapacity);
+    }
+
+    // Copies size units inside the arena, ranges must not overlap
+    public void copy(int srcOffset, int dstOffset, int size){
+        if(size <= 0) return;
+        for (int i = 0; i < bufferIDs.length; i++) {
+            glBindBuffer(GL_COPY_READ_BUFFER, bufferIDs[i]);
+            glBindBuffer(GL_COPY_WRITE_BUFFER, bufferIDs[i]);
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER,
+                (long) srcOffset * unitSizes[i], (long) dstOffset * unitSizes[i], (long) size * unitSizes[i]);
+        }
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    public void upload(int offset, ByteBuffer data){
+        upload(0, offset, data);
+    }
+
+    public void upload(int offset, FloatBuffer data){
+        glBindBuffer(GL_COPY_WRITE_BUFFER, bufferIDs[0]);
+        glBufferSubData(GL_COPY_WRITE_BUFFER, (long) offset * unitSizes[0], data);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    public void upload(int offset, IntBuffer data){
+        glBindBuffer(GL_COPY_WRITE_BUFFER, bufferIDs[0]);
+        glBufferSubData(GL_COPY_WRITE_BUFFER, (long) offset * unitSizes[0], data);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    public void upload(int buffer, int offset, ByteBuffer data){
+        glBindBuffer(GL_COPY_WRITE_BUFFER, bufferIDs[buffer]);
+        glBufferSubData(GL_COPY_WRITE_BUFFER, (long) offset * unitSizes[buffer], data);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    public int getBufferID(){
+        return bufferIDs[0];
+    }
+
+    public int getBufferID(int buffer){
+        return bufferIDs[buffer];
+    }
+
+    public int getCapacity(){
+        return allocator.getCapacity();
+    }
+
+    public int getUnitSize(){
+        return unitSizes[0];
+    }
+
+    public int getUsed(){
+        return allocator.getUsed();
+    }
+
+}
@@ -2,53 +2,54 @@ package src.engine.graphics;
 
 import imgui.ImDrawData;
 
-import static org.lwjgl.opengl.GL15.*;
-import static org.lwjgl.opengl.GL20.*;
-import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL43.*;
 
+// The draw lists of every frame are streamed, the vertex buffer is bound per list at the offset it was written to
 public class GuiMesh {
     
-    private int indicesVBO, vaoID, verticesVBO;
+    private int vaoID;
+    private StreamBuffer vertices, indices;
 
     public GuiMesh(){
         
         vaoID = glGenVertexArrays();
         glBindVertexArray(vaoID);
 
-        verticesVBO = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, verticesVBO);
         glEnableVertexAttribArray(0);
-        glVertexAttribPointer(0, 2, GL_FLOAT, false, ImDrawData.SIZEOF_IM_DRAW_VERT, 0);
+        glVertexAttribFormat(0, 2, GL_FLOAT, false, 0);
+        glVertexAttribBinding(0, 0);
         glEnableVertexAttribArray(1);
-        glVertexAttribPointer(1, 2, GL_FLOAT, false, ImDrawData.SIZEOF_IM_DRAW_VERT, 8);
+        glVertexAttribFormat(1, 2, GL_FLOAT, false, 8);
+        glVertexAttribBinding(1, 0);
         glEnableVertexAttribArray(2);
-        glVertexAttribPointer(2, 4, GL_UNSIGNED_BYTE, true, ImDrawData.SIZEOF_IM_DRAW_VERT, 16);
+        glVertexAttribFormat(2, 4, GL_UNSIGNED_BYTE, true, 16);
+        glVertexAttribBinding(2, 0);
 
-        indicesVBO = glGenBuffers();
-
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
         glBindVertexArray(0);
 
+        vertices = new StreamBuffer(ImDrawData.SIZEOF_IM_DRAW_VERT * 4096);
+        indices = new StreamBuffer(ImDrawData.SIZEOF_IM_DRAW_IDX * 8192);
+
     }
 
     public void cleanup(){
 
-        glDeleteBuffers(indicesVBO);
-        glDeleteBuffers(verticesVBO);
+        vertices.cleanup();
+        indices.cleanup();
         glDeleteVertexArrays(vaoID);
     
     }
 
-    public int getIndicesVBO(){
-        return indicesVBO;
+    public StreamBuffer getIndices(){
+        return indices;
     }
 
     public int getVaoID(){
         return vaoID;
     }
 
-    public int getVerticesVBO(){
-        return verticesVBO;
+    public StreamBuffer getVertices(){
+        return vertices;
     }
     
 }
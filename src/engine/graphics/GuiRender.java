@@ -10,7 +10,7 @@ import src.game.DropFileLoadType;
 import java.nio.ByteBuffer;
 import java.util.*;
 
-import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL43.*;
 
 public class GuiRender {
 
@@ -34,6 +34,7 @@ public class GuiRender {
     public void cleanup(){
         shader.cleanup();
         texture.cleanup();
+        guiMesh.cleanup();
     }
 
     public void createUIResources(Window window){
@@ -101,30 +102,42 @@ public class GuiRender {
 
         glBindVertexArray(guiMesh.getVaoID());
 
-        glBindBuffer(GL_ARRAY_BUFFER, guiMesh.getVerticesVBO());
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, guiMesh.getIndicesVBO());
-
         ImGuiIO io = ImGui.getIO();
         scale.x = 2.0f / io.getDisplaySizeX();
         scale.y = -2.0f / io.getDisplaySizeY();
         UniformMap.setUniform("scale", scale);
 
+        // Every list of the frame goes into one region of each stream, one after the other
         ImDrawData drawData = ImGui.getDrawData();
         int numLists = drawData.getCmdListsCount();
+        StreamBuffer vertices = guiMesh.getVertices();
+        StreamBuffer indices = guiMesh.getIndices();
+        ByteBuffer verticesRegion = vertices.begin(drawData.getTotalVtxCount() * ImDrawData.SIZEOF_IM_DRAW_VERT);
+        ByteBuffer indicesRegion = indices.begin(drawData.getTotalIdxCount() * ImDrawData.SIZEOF_IM_DRAW_IDX);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indices.getBufferID());
+
         for (int i = 0; i < numLists; i++) {
-            glBufferData(GL_ARRAY_BUFFER, drawData.getCmdListVtxBufferData(i), GL_STREAM_DRAW);
-            glBufferData(GL_ELEMENT_ARRAY_BUFFER, drawData.getCmdListIdxBufferData(i), GL_STREAM_DRAW);
+            ByteBuffer listVertices = drawData.getCmdListVtxBufferData(i);
+            ByteBuffer listIndices = drawData.getCmdListIdxBufferData(i);
+            long verticesOffset = vertices.getOffset() + verticesRegion.position();
+            long indicesOffset = indices.getOffset() + indicesRegion.position();
+            verticesRegion.put(listVertices);
+            indicesRegion.put(listIndices);
+            glBindVertexBuffer(0, vertices.getBufferID(), verticesOffset, ImDrawData.SIZEOF_IM_DRAW_VERT);
 
             int numCmds = drawData.getCmdListCmdBufferSize(i);
             for (int j = 0; j < numCmds; j++) {
                 final int elemCount = drawData.getCmdListCmdBufferElemCount(i, j);
                 final int idxBufferOffset = drawData.getCmdListCmdBufferIdxOffset(i, j);
-                final int indices = idxBufferOffset * ImDrawData.SIZEOF_IM_DRAW_IDX;
+                final long indicesPointer = indicesOffset + (long) idxBufferOffset * ImDrawData.SIZEOF_IM_DRAW_IDX;
 
                 texture.bind();
-                glDrawElements(GL_TRIANGLES, elemCount, GL_UNSIGNED_SHORT, indices);
+                glDrawElements(GL_TRIANGLES, elemCount, GL_UNSIGNED_SHORT, indicesPointer);
             }
         }
+        vertices.end();
+        indices.end();
+        glBindVertexArray(0);
 
         glEnable(GL_DEPTH_TEST);
         glEnable(GL_CULL_FACE);
@@ -0,0 +1,86 @@
+package src.engine.graphics;
+
+import java.util.*;
+
+import static org.lwjgl.opengl.GL43.*;
+import static src.engine.graphics.UniformMap.*;
+
+/*
+ * Depth pyramid of the GBuffer depth. Level 0 is a copy of the depth and every following level keeps
+ * the farthest depth of the texels below it, so a box whose nearest depth is farther than the texels it
+ * covers is hidden.
+ */
+public class HiZBuffer {
+
+    private static final int GROUP_SIZE = 8;
+
+    private final int width;
+    private final int height;
+    private final int levels;
+    private int textureID;
+
+    private Shader shader;
+    private UniformMap uniformMap;
+    private IntUniform depthSampler;
+    private IntUniform copyDepth;
+
+    public HiZBuffer(int width, int height){
+        this.width = width;
+        this.height = height;
+        levels = 32 - Integer.numberOfLeadingZeros(Math.max(1, Math.max(width, height)));
+
+        textureID = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, textureID);
+        glTexStorage2D(GL_TEXTURE_2D, levels, GL_R32F, width, height);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST_MIPMAP_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        List<Shader.ShaderModuleData> shaderModuleDataList = new ArrayList<>();
+        shaderModuleDataList.add(new Shader.ShaderModuleData("resources/shaders/hiz.comp", GL_COMPUTE_SHADER));
+        shader = new Shader(shaderModuleDataList);
+        uniformMap = new UniformMap(shader.getProgramId());
+        depthSampler = uniformMap.createUniform("depthSampler", IntUniform::new);
+        copyDepth = uniformMap.createUniform("copyDepth", IntUniform::new);
+    }
+
+    public void cleanup(){
+        shader.cleanup();
+        glDeleteTextures(textureID);
+    }
+
+    public void build(int depthTextureID){
+        shader.bind();
+        glActiveTexture(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, depthTextureID);
+        uniformMap.setUniform(depthSampler, 0);
+
+        uniformMap.setUniform(copyDepth, 1);
+        glBindImageTexture(0, textureID, 0, false, 0, GL_READ_ONLY, GL_R32F);
+        glBindImageTexture(1, textureID, 0, false, 0, GL_WRITE_ONLY, GL_R32F);
+        glDispatchCompute((width + GROUP_SIZE - 1) / GROUP_SIZE, (height + GROUP_SIZE - 1) / GROUP_SIZE, 1);
+
+        uniformMap.setUniform(copyDepth, 0);
+        int levelWidth = width;
+        int levelHeight = height;
+        for (int level = 1; level < levels; level++) {
+            levelWidth = Math.max(1, levelWidth / 2);
+            levelHeight = Math.max(1, levelHeight / 2);
+            glMemoryBarrier(GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+            glBindImageTexture(0, textureID, level - 1, false, 0, GL_READ_ONLY, GL_R32F);
+            glBindImageTexture(1, textureID, level, false, 0, GL_WRITE_ONLY, GL_R32F);
+            glDispatchCompute((levelWidth + GROUP_SIZE - 1) / GROUP_SIZE, (levelHeight + GROUP_SIZE - 1) / GROUP_SIZE, 1);
+        }
+
+        glMemoryBarrier(GL_TEXTURE_FETCH_BARRIER_BIT);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        shader.unbind();
+    }
+
+    public int getTextureID(){
+        return textureID;
+    }
+
+}
@@ -9,6 +9,7 @@ import java.util.*;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL14.*;
 import static org.lwjgl.opengl.GL30.*;
+import static src.engine.graphics.UniformMap.*;
 
 
 public class LightsRender {
@@ -21,6 +22,30 @@ public class LightsRender {
     private QuadMesh quadMesh;
     private UniformMap uniformMap;
 
+    private IntUniform albedoSampler;
+    private IntUniform normalSampler;
+    private IntUniform specularSampler;
+    private IntUniform depthSampler;
+    private Mat4Uniform invProjectionMatrix;
+    private Mat4Uniform invViewMatrix;
+    private FloatUniform ambientLightFactor;
+    private Vec3Uniform ambientLightColor;
+    private PointLightUniforms[] pointLightUniforms;
+    private PointLightUniforms[] spotLightUniforms;
+    private UniformArray<Vec3Uniform> spotLightConeDir;
+    private UniformArray<FloatUniform> spotLightCutoff;
+    private Vec3Uniform dirLightColor;
+    private Vec3Uniform dirLightDirection;
+    private FloatUniform dirLightIntensity;
+    private IntUniform fogActive;
+    private Vec3Uniform fogColor;
+    private FloatUniform fogDensity;
+    private IntUniform[] shadowMap;
+    private UniformArray<Mat4Uniform> cascadeProjViewMatrix;
+    private UniformArray<FloatUniform> cascadeSplitDistance;
+
+    private Vector4f aux;
+
     public LightsRender(){
         
         List<Shader.ShaderModuleData> shaderModuleDataList = new ArrayList<>();
@@ -28,6 +53,7 @@ public class LightsRender {
         shaderModuleDataList.add(new Shader.ShaderModuleData("resources/shaders/lights.fs", GL_FRAGMENT_SHADER));
         shader = new Shader(shaderModuleDataList);
         quadMesh = new QuadMesh();
+        aux = new Vector4f();
         createUniforms();
 
     }
@@ -39,49 +65,42 @@ public class LightsRender {
 
     private void createUniforms() {
         uniformMap = new UniformMap(shader.getProgramId());
-        uniformMap.createUniform("albedoSampler");
-        uniformMap.createUniform("normalSampler");
-        uniformMap.createUniform("specularSampler");
-        uniformMap.createUniform("depthSampler");
-        uniformMap.createUniform("invProjectionMatrix");
-        uniformMap.createUniform("invViewMatrix");
-        uniformMap.createUniform("ambientLight.factor");
-        uniformMap.createUniform("ambientLight.color");
-
+        albedoSampler = uniformMap.createUniform("albedoSampler", IntUniform::new);
+        normalSampler = uniformMap.createUniform("normalSampler", IntUniform::new);
+        specularSampler = uniformMap.createUniform("specularSampler", IntUniform::new);
+        depthSampler = uniformMap.createUniform("depthSampler", IntUniform::new);
+        invProjectionMatrix = uniformMap.createUniform("invProjectionMatrix", Mat4Uniform::new);
+        invViewMatrix = uniformMap.createUniform("invViewMatrix", Mat4Uniform::new);
+        ambientLightFactor = uniformMap.createUniform("ambientLight.factor", FloatUniform::new);
+        ambientLightColor = uniformMap.createUniform("ambientLight.color", Vec3Uniform::new);
+
+        pointLightUniforms = new PointLightUniforms[MAX_POINT_LIGHTS];
         for (int i = 0; i < MAX_POINT_LIGHTS; i++) {
-            String name = "pointLights[" + i + "]";
-            uniformMap.createUniform(name + ".position");
-            uniformMap.createUniform(name + ".color");
-            uniformMap.createUniform(name + ".intensity");
-            uniformMap.createUniform(name + ".att.constant");
-            uniformMap.createUniform(name + ".att.linear");
-            uniformMap.createUniform(name + ".att.exponent");
+            pointLightUniforms[i] = new PointLightUniforms(uniformMap, "pointLights[" + i + "]");
         }
+        spotLightUniforms = new PointLightUniforms[MAX_SPOT_LIGHTS];
         for (int i = 0; i < MAX_SPOT_LIGHTS; i++) {
-            String name = "spotLights[" + i + "]";
-            uniformMap.createUniform(name + ".pl.position");
-            uniformMap.createUniform(name + ".pl.color");
-            uniformMap.createUniform(name + ".pl.intensity");
-            uniformMap.createUniform(name + ".pl.att.constant");
-            uniformMap.createUniform(name + ".pl.att.linear");
-            uniformMap.createUniform(name + ".pl.att.exponent");
-            uniformMap.createUniform(name + ".conedir");
-            uniformMap.createUniform(name + ".cutoff");
+            spotLightUniforms[i] = new PointLightUniforms(uniformMap, "spotLights[" + i + "].pl");
         }
+        spotLightConeDir = uniformMap.createUniformArray("spotLights", ".conedir", MAX_SPOT_LIGHTS, Vec3Uniform::new);
+        spotLightCutoff = uniformMap.createUniformArray("spotLights", ".cutoff", MAX_SPOT_LIGHTS, FloatUniform::new);
 
-        uniformMap.createUniform("dirLight.color");
-        uniformMap.createUniform("dirLight.direction");
-        uniformMap.createUniform("dirLight.intensity");
+        dirLightColor = uniformMap.createUniform("dirLight.color", Vec3Uniform::new);
+        dirLightDirection = uniformMap.createUniform("dirLight.direction", Vec3Uniform::new);
+        dirLightIntensity = uniformMap.createUniform("dirLight.intensity", FloatUniform::new);
 
-        uniformMap.createUniform("fog.activeFog");
-        uniformMap.createUniform("fog.color");
-        uniformMap.createUniform("fog.density");
+        fogActive = uniformMap.createUniform("fog.activeFog", IntUniform::new);
+        fogColor = uniformMap.createUniform("fog.color", Vec3Uniform::new);
+        fogDensity = uniformMap.createUniform("fog.density", FloatUniform::new);
 
+        shadowMap = new IntUniform[CascadeShadow.SHADOW_MAP_CASCADE_COUNT];
         for (int i = 0; i < CascadeShadow.SHADOW_MAP_CASCADE_COUNT; i++) {
-            uniformMap.createUniform("shadowMap_" + i);
-            uniformMap.createUniform("cascadeshadows[" + i + "]" + ".projViewMatrix");
-            uniformMap.createUniform("cascadeshadows[" + i + "]" + ".splitDistance");
+            shadowMap[i] = uniformMap.createUniform("shadowMap_" + i, IntUniform::new);
         }
+        cascadeProjViewMatrix = uniformMap.createUniformArray("cascadeshadows", ".projViewMatrix",
+            CascadeShadow.SHADOW_MAP_CASCADE_COUNT, Mat4Uniform::new);
+        cascadeSplitDistance = uniformMap.createUniformArray("cascadeshadows", ".splitDistance",
+            CascadeShadow.SHADOW_MAP_CASCADE_COUNT, FloatUniform::new);
         
     }
 
@@ -98,29 +117,29 @@ public class LightsRender {
             glBindTexture(GL_TEXTURE_2D, textureIds[i]);
         }
 
-        uniformMap.setUniform("albedoSampler", 0);
-        uniformMap.setUniform("normalSampler", 1);
-        uniformMap.setUniform("specularSampler", 2);
-        uniformMap.setUniform("depthSampler", 3);
+        uniformMap.setUniform(albedoSampler, 0);
+        uniformMap.setUniform(normalSampler, 1);
+        uniformMap.setUniform(specularSampler, 2);
+        uniformMap.setUniform(depthSampler, 3);
 
         Fog fog = scene.getFog();
-        uniformMap.setUniform("fog.activeFog", fog.isActive() ? 1 : 0);
-        uniformMap.setUniform("fog.color", fog.getColor());
-        uniformMap.setUniform("fog.density", fog.getDensity());
+        uniformMap.setUniform(fogActive, fog.isActive() ? 1 : 0);
+        uniformMap.setUniform(fogColor, fog.getColor());
+        uniformMap.setUniform(fogDensity, fog.getDensity());
 
         int start = 4;
         List<CascadeShadow> cascadeShadows = shadowRender.getCascadeShadows();
         for (int i = 0; i < CascadeShadow.SHADOW_MAP_CASCADE_COUNT; i++) {
             glActiveTexture(GL_TEXTURE0 + start + i);
-            uniformMap.setUniform("shadowMap_" + i, start + i);
+            uniformMap.setUniform(shadowMap[i], start + i);
             CascadeShadow cascadeShadow = cascadeShadows.get(i);
-            uniformMap.setUniform("cascadeshadows[" + i + "]" + ".projViewMatrix", cascadeShadow.getProjViewMatrix());
-            uniformMap.setUniform("cascadeshadows[" + i + "]" + ".splitDistance", cascadeShadow.getSplitDistance());
+            uniformMap.setUniform(cascadeProjViewMatrix.get(i), cascadeShadow.getProjViewMatrix());
+            uniformMap.setUniform(cascadeSplitDistance.get(i), cascadeShadow.getSplitDistance());
         }
         shadowRender.getShadowBuffer().bindTextures(GL_TEXTURE0 + start);
 
-        uniformMap.setUniform("invProjectionMatrix", scene.getProjection().getInvProjMatrix());
-        uniformMap.setUniform("invViewMatrix", scene.getCamera().getInvViewMatrix());
+        uniformMap.setUniform(invProjectionMatrix, scene.getProjection().getInvProjMatrix());
+        uniformMap.setUniform(invViewMatrix, scene.getCamera().getInvViewMatrix());
 
         glBindVertexArray(quadMesh.getVaoID());
         glDrawElements(GL_TRIANGLES, quadMesh.getNumVertices(), GL_UNSIGNED_INT, 0);
@@ -133,85 +152,76 @@ public class LightsRender {
 
         SceneLights sceneLights = scene.getSceneLights();
         AmbientLight ambientLight = sceneLights.getAmbientLight();
-        uniformMap.setUniform("ambientLight.factor", ambientLight.getIntensity());
-        uniformMap.setUniform("ambientLight.color", ambientLight.getColor());
+        uniformMap.setUniform(ambientLightFactor, ambientLight.getIntensity());
+        uniformMap.setUniform(ambientLightColor, ambientLight.getColor());
 
         DirLight dirLight = sceneLights.getDirLight();
-        Vector4f auxDir = new Vector4f(dirLight.getDirection(), 0);
-        auxDir.mul(viewMatrix);
-        Vector3f dir = new Vector3f(auxDir.x, auxDir.y, auxDir.z);
-        uniformMap.setUniform("dirLight.color", dirLight.getColor());
-        uniformMap.setUniform("dirLight.direction", dir);
-        uniformMap.setUniform("dirLight.intensity", dirLight.getIntensity());
+        aux.set(dirLight.getDirection(), 0);
+        aux.mul(viewMatrix);
+        uniformMap.setUniform(dirLightColor, dirLight.getColor());
+        uniformMap.setUniform(dirLightDirection, aux.x, aux.y, aux.z);
+        uniformMap.setUniform(dirLightIntensity, dirLight.getIntensity());
 
         List<PointLight> pointLights = sceneLights.getPointLights();
         int numPointLights = pointLights.size();
-        PointLight pointLight;
         for (int i = 0; i < MAX_POINT_LIGHTS; i++) {
-            if (i < numPointLights) {
-                pointLight = pointLights.get(i);
-            } else {
-                pointLight = null;
-            }
-            String name = "pointLights[" + i + "]";
-            updatePointLight(pointLight, name, viewMatrix);
+            updatePointLight(i < numPointLights ? pointLights.get(i) : null, pointLightUniforms[i], viewMatrix);
         }
 
-
         List<SpotLight> spotLights = sceneLights.getSpotLights();
         int numSpotLights = spotLights.size();
-        SpotLight spotLight;
         for (int i = 0; i < MAX_SPOT_LIGHTS; i++) {
-            if (i < numSpotLights) {
-                spotLight = spotLights.get(i);
+            SpotLight spotLight = i < numSpotLights ? spotLights.get(i) : null;
+            if (spotLight != null) {
+                uniformMap.setUniform(spotLightConeDir.get(i), spotLight.getConeDirection());
+                uniformMap.setUniform(spotLightCutoff.get(i), spotLight.getCutOff());
+                updatePointLight(spotLight.getPointLight(), spotLightUniforms[i], viewMatrix);
             } else {
-                spotLight = null;
+                uniformMap.setUniform(spotLightConeDir.get(i), 0, 0, 0);
+                uniformMap.setUniform(spotLightCutoff.get(i), 0.0f);
+                updatePointLight(null, spotLightUniforms[i], viewMatrix);
             }
-            String name = "spotLights[" + i + "]";
-            updateSpotLight(spotLight, name, viewMatrix);
         }
     }
 
-    private void updatePointLight(PointLight pointLight, String prefix, Matrix4f viewMatrix) {
-        Vector4f aux = new Vector4f();
-        Vector3f lightPosition = new Vector3f();
-        Vector3f color = new Vector3f();
-        float intensity = 0.0f;
-        float constant = 0.0f;
-        float linear = 0.0f;
-        float exponent = 0.0f;
-        if (pointLight != null) {
-            aux.set(pointLight.getPosition(), 1);
-            aux.mul(viewMatrix);
-            lightPosition.set(aux.x, aux.y, aux.z);
-            color.set(pointLight.getColor());
-            intensity = pointLight.getIntensity();
-            PointLight.Attenuation attenuation = pointLight.getAttenuation();
-            constant = attenuation.getConstant();
-            linear = attenuation.getLinear();
-            exponent = attenuation.getExponent();
+    private void updatePointLight(PointLight pointLight, PointLightUniforms uniforms, Matrix4f viewMatrix) {
+        if (pointLight == null) {
+            uniformMap.setUniform(uniforms.position, 0, 0, 0);
+            uniformMap.setUniform(uniforms.color, 0, 0, 0);
+            uniformMap.setUniform(uniforms.intensity, 0.0f);
+            uniformMap.setUniform(uniforms.constant, 0.0f);
+            uniformMap.setUniform(uniforms.linear, 0.0f);
+            uniformMap.setUniform(uniforms.exponent, 0.0f);
+            return;
         }
-        uniformMap.setUniform(prefix + ".position", lightPosition);
-        uniformMap.setUniform(prefix + ".color", color);
-        uniformMap.setUniform(prefix + ".intensity", intensity);
-        uniformMap.setUniform(prefix + ".att.constant", constant);
-        uniformMap.setUniform(prefix + ".att.linear", linear);
-        uniformMap.setUniform(prefix + ".att.exponent", exponent);
+        aux.set(pointLight.getPosition(), 1);
+        aux.mul(viewMatrix);
+        PointLight.Attenuation attenuation = pointLight.getAttenuation();
+        uniformMap.setUniform(uniforms.position, aux.x, aux.y, aux.z);
+        uniformMap.setUniform(uniforms.color, pointLight.getColor());
+        uniformMap.setUniform(uniforms.intensity, pointLight.getIntensity());
+        uniformMap.setUniform(uniforms.constant, attenuation.getConstant());
+        uniformMap.setUniform(uniforms.linear, attenuation.getLinear());
+        uniformMap.setUniform(uniforms.exponent, attenuation.getExponent());
     }
 
-    private void updateSpotLight(SpotLight spotLight, String prefix, Matrix4f viewMatrix) {
-        PointLight pointLight = null;
-        Vector3f coneDirection = new Vector3f();
-        float cutoff = 0.0f;
-        if (spotLight != null) {
-            coneDirection = spotLight.getConeDirection();
-            cutoff = spotLight.getCutOff();
-            pointLight = spotLight.getPointLight();
+    // Handles of a PointLight struct, also used for the pl member of SpotLight
+    private static class PointLightUniforms {
+        final Vec3Uniform position;
+        final Vec3Uniform color;
+        final FloatUniform intensity;
+        final FloatUniform constant;
+        final FloatUniform linear;
+        final FloatUniform exponent;
+
+        PointLightUniforms(UniformMap uniformMap, String prefix){
+            position = uniformMap.createUniform(prefix + ".position", Vec3Uniform::new);
+            color = uniformMap.createUniform(prefix + ".color", Vec3Uniform::new);
+            intensity = uniformMap.createUniform(prefix + ".intensity", FloatUniform::new);
+            constant = uniformMap.createUniform(prefix + ".att.constant", FloatUniform::new);
+            linear = uniformMap.createUniform(prefix + ".att.linear", FloatUniform::new);
+            exponent = uniformMap.createUniform(prefix + ".att.exponent", FloatUniform::new);
         }
-
-        uniformMap.setUniform(prefix + ".conedir", coneDirection);
-        uniformMap.setUniform(prefix + ".conedir", cutoff);
-        updatePointLight(pointLight, prefix + ".pl", viewMatrix);
     }
 
 }
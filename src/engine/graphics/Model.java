@@ -2,12 +2,13 @@ package src.engine.graphics;
 
 import java.util.*;
 
-import org.joml.Matrix4f;
 import org.joml.Vector3f;
 
+import src.engine.scene.AnimationChannel;
 import src.engine.scene.Entity;
 import src.engine.scene.ModelLoader;
 import src.engine.scene.ModelLoader.Bone;
+import src.engine.scene.Skeleton;
 
 public class Model {
     
@@ -17,6 +18,9 @@ public class Model {
     private List<RenderBuffers.MeshDrawData> meshDrawDataList;
     private List<Animation> animationList;
     private int currAnimation;
+    // Crowd models are drawn from baked vertex animation instead of being skinned per entity
+    private boolean crowd;
+    private Map<Animation, VertexAnimationTexture.BakedClip> bakedClips;
     
     private List<Bone> boneList;
 
@@ -30,6 +34,8 @@ public class Model {
         boneList = bL;
         meshDrawDataList = new ArrayList<>();
         currAnimation = 0;
+        crowd = false;
+        bakedClips = new HashMap<>();
 
     }
 
@@ -72,6 +78,27 @@ public class Model {
         return animationList != null && !animationList.isEmpty();
     }
 
+    public boolean isCrowd() {
+        return crowd && isAnimated();
+    }
+
+    // Off unless opted into, has to be set before the model is added to the scene
+    public void setCrowd(boolean crowd) {
+        this.crowd = crowd;
+    }
+
+    public VertexAnimationTexture.BakedClip getBakedClip(Animation animation) {
+        return bakedClips.get(animation);
+    }
+
+    public void putBakedClip(Animation animation, VertexAnimationTexture.BakedClip bakedClip) {
+        bakedClips.put(animation, bakedClip);
+    }
+
+    public int getBakedClipCount() {
+        return bakedClips.size();
+    }
+
     public void addAnimation(String animPath) throws Exception{
 
         if(boneList == null){
@@ -96,31 +123,7 @@ public class Model {
         return aabbMin;
     }
     
-    public record Animation(String name, double duration, List<AnimatedFrame> frames) {}
-    
-    public static class AnimatedFrame {
-        private Matrix4f[] bonesMatrices;
-        private int offset;
-
-        public AnimatedFrame(Matrix4f[] bonesMatrices) {
-            this.bonesMatrices = bonesMatrices;
-        }
-
-        public void clearData() {
-            bonesMatrices = null;
-        }
-
-        public Matrix4f[] getBonesMatrices() {
-            return bonesMatrices;
-        }
-
-        public int getOffset() {
-            return offset;
-        }
-
-        public void setOffset(int offset) {
-            this.offset = offset;
-        }
-    }
+    // Duration in ticks, channels are indexed by skeleton node and null for nodes that are not animated
+    public record Animation(String name, double duration, double ticksPerSecond, Skeleton skeleton, AnimationChannel[] channels) {}
     
 }
@@ -0,0 +1,124 @@
+package src.engine.graphics;
+
+import java.util.*;
+
+/*
+ * Offset allocator used by GeometryArena. Works in abstract units (vertices, indices, floats...)
+ * and keeps a free list of ranges ordered by offset so neighbours can be coalesced on free.
+ * It holds no GL state so it can be exercised without a context.
+ */
+public class RangeAllocator {
+
+    public static final int NO_SPACE = -1;
+
+    private int capacity;
+    private int used;
+    private TreeMap<Integer, Integer> freeRanges;
+
+    public RangeAllocator(int capacity){
+        if(capacity < 0){
+            throw new IllegalArgumentException("Invalid capacity [" + capacity + "]");
+        }
+        this.capacity = capacity;
+        used = 0;
+        freeRanges = new TreeMap<>();
+        if(capacity > 0){
+            freeRanges.put(0, capacity);
+        }
+    }
+
+    public static int nextCapacity(int capacity, int size){
+        return Math.max(capacity * 2, capacity + size);
+    }
+
+    // First fit. Returns NO_SPACE when no free range is big enough, the caller is expected to grow.
+    // An empty range would share its offset with a live one, so sizes must be positive
+    public int allocate(int size){
+        if(size <= 0){
+            throw new IllegalArgumentException("Invalid size [" + size + "]");
+        }
+
+        for(Map.Entry<Integer, Integer> range : freeRanges.entrySet()){
+            int offset = range.getKey();
+            int rangeSize = range.getValue();
+            if(rangeSize >= size){
+                freeRanges.remove(offset);
+                if(rangeSize > size){
+                    freeRanges.put(offset + size, rangeSize - size);
+                }
+                used += size;
+                return offset;
+            }
+        }
+
+        return NO_SPACE;
+    }
+
+    public void free(int offset, int size){
+        if(size <= 0){
+            throw new IllegalArgumentException("Invalid size [" + size + "]");
+        }
+        if(offset < 0 || offset + size > capacity){
+            throw new IllegalArgumentException("Range [" + offset + ", " + (offset + size) + "] out of bounds");
+        }
+
+        int start = offset;
+        int end = offset + size;
+
+        Map.Entry<Integer, Integer> prev = freeRanges.floorEntry(offset);
+        if(prev != null && prev.getKey() + prev.getValue() > offset){
+            throw new IllegalStateException("Range [" + offset + ", " + end + "] is already free");
+        }
+        Map.Entry<Integer, Integer> next = freeRanges.ceilingEntry(offset);
+        if(next != null && next.getKey() < end){
+            throw new IllegalStateException("Range [" + offset + ", " + end + "] is already free");
+        }
+
+        if(prev != null && prev.getKey() + prev.getValue() == offset){
+            start = prev.getKey();
+            freeRanges.remove(prev.getKey());
+        }
+        if(next != null && next.getKey() == end){
+            end = next.getKey() + next.getValue();
+            freeRanges.remove(next.getKey());
+        }
+
+        freeRanges.put(start, end - start);
+        used -= size;
+    }
+
+    public void grow(int newCapacity){
+        if(newCapacity <= capacity){
+            return;
+        }
+
+        int start = capacity;
+        Map.Entry<Integer, Integer> last = freeRanges.lastEntry();
+        if(last != null && last.getKey() + last.getValue() == capacity){
+            start = last.getKey();
+        }
+        freeRanges.put(start, newCapacity - start);
+        capacity = newCapacity;
+    }
+
+    public int getCapacity(){
+        return capacity;
+    }
+
+    public int getUsed(){
+        return used;
+    }
+
+    public int getFreeRangeCount(){
+        return freeRanges.size();
+    }
+
+    public int getLargestFreeRange(){
+        int largest = 0;
+        for(int size : freeRanges.values()){
+            largest = Math.max(largest, size);
+        }
+        return largest;
+    }
+
+}
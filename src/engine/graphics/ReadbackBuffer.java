@@ -0,0 +1,99 @@
+package src.engine.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL46.*;
+
+/*
+ * GPU results brought back to the CPU without waiting for them. Its storage is StreamBuffer.NUM_REGIONS regions
+ * mapped once, persistently and coherently for reading. Each copy() goes into the next region and is fenced,
+ * and getLatest() hands out the newest region whose fence has signalled, so what the CPU reads is one or more
+ * frames old. Growing replaces the storage and drops whatever had not been read yet.
+ */
+public class ReadbackBuffer {
+
+    private static final int NUM_REGIONS = StreamBuffer.NUM_REGIONS;
+
+    private int bufferID;
+    private ByteBuffer mapped;
+    private int regionSize;
+    private int region;
+    private final long[] fences;
+    // Bytes copied into each region, 0 while it holds nothing
+    private final int[] sizes;
+
+    public ReadbackBuffer(int initialSize){
+        fences = new long[NUM_REGIONS];
+        sizes = new int[NUM_REGIONS];
+        region = NUM_REGIONS - 1;
+        allocate(initialSize);
+    }
+
+    public void cleanup(){
+        deleteFences();
+        glDeleteBuffers(bufferID);
+    }
+
+    private void allocate(int size){
+        regionSize = (size + 3) / 4 * 4;
+        bufferID = glGenBuffers();
+        int flags = GL_MAP_READ_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+        glBindBuffer(GL_COPY_WRITE_BUFFER, bufferID);
+        glBufferStorage(GL_COPY_WRITE_BUFFER, (long) regionSize * NUM_REGIONS, flags);
+        mapped = glMapBufferRange(GL_COPY_WRITE_BUFFER, 0, (long) regionSize * NUM_REGIONS, flags);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        if(mapped == null){
+            throw new RuntimeException("Could not map readback buffer of " + regionSize * NUM_REGIONS + " bytes");
+        }
+    }
+
+    private void deleteFences(){
+        for (int i = 0; i < NUM_REGIONS; i++) {
+            if(fences[i] != 0){
+                glDeleteSync(fences[i]);
+                fences[i] = 0;
+            }
+        }
+    }
+
+    // Copies the first size bytes of the source buffer into the next region, after every command submitted before
+    public void copy(int srcBufferID, int size){
+        if(size > regionSize){
+            deleteFences();
+            Arrays.fill(sizes, 0);
+            glDeleteBuffers(bufferID);
+            allocate(Math.max(size, regionSize * 2));
+        }
+
+        region = (region + 1) % NUM_REGIONS;
+        if(fences[region] != 0){
+            glDeleteSync(fences[region]);
+        }
+        glBindBuffer(GL_COPY_READ_BUFFER, srcBufferID);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, bufferID);
+        glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 0, (long) region * regionSize, size);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        fences[region] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        sizes[region] = size;
+    }
+
+    // Newest copy the GPU has finished, null if there is none yet. Valid until the next copy()
+    public ByteBuffer getLatest(){
+        for (int i = 0; i < NUM_REGIONS; i++) {
+            int r = (region - i + NUM_REGIONS) % NUM_REGIONS;
+            if(sizes[r] == 0) continue;
+            if(fences[r] != 0){
+                int status = glClientWaitSync(fences[r], 0, 0);
+                if(status != GL_ALREADY_SIGNALED && status != GL_CONDITION_SATISFIED) continue;
+                glDeleteSync(fences[r]);
+                fences[r] = 0;
+            }
+            return mapped.slice(r * regionSize, sizes[r]).order(ByteOrder.nativeOrder());
+        }
+        return null;
+    }
+
+}
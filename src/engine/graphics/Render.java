@@ -5,6 +5,7 @@ import org.lwjgl.opengl.GL;
 import src.engine.Window;
 import src.engine.scene.Entity;
 import src.engine.scene.Scene;
+import src.game.DropFileLoadType;
 
 import static org.lwjgl.opengl.GL30.*;
 
@@ -14,6 +15,8 @@ import java.util.List;
 public class Render{
 
     private AnimationRender animationRender;
+    private CullRender cullRender;
+    private DrawBuffers drawBuffers;
     private GBuffer gBuffer;
     private GuiRender guiRender;
     private LightsRender lightsRender;
@@ -32,14 +35,17 @@ public class Render{
         glEnable(GL_BLEND);
         glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
         
-        sceneRender = new SceneRender();
+        VertexLayout vertexLayout = VertexLayout.DEFAULT;
+        sceneRender = new SceneRender(vertexLayout);
         guiRender = new GuiRender(window);
         skyBoxRender = new SkyBoxRender();
-        shadowRender = new ShadowRender();
+        shadowRender = new ShadowRender(vertexLayout);
         lightsRender = new LightsRender();
-        animationRender = new AnimationRender();
+        animationRender = new AnimationRender(vertexLayout);
         gBuffer = new GBuffer(window);
-        renderBuffers = new RenderBuffers();
+        renderBuffers = new RenderBuffers(vertexLayout);
+        drawBuffers = new DrawBuffers();
+        cullRender = new CullRender(gBuffer);
 
     }
 
@@ -53,6 +59,8 @@ public class Render{
         animationRender.cleanup();
         gBuffer.cleanUp();
         renderBuffers.cleanup();
+        drawBuffers.cleanup();
+        cullRender.cleanup();
 
     }
 
@@ -84,55 +92,138 @@ public class Render{
         glEnable(GL_BLEND);
         glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
 
-        animationRender.render(scene, renderBuffers);
-        shadowRender.render(scene, renderBuffers);
-        sceneRender.render(scene, renderBuffers, gBuffer, this);
+        loadPendingModels(scene);
+        renderBuffers.bakeNewCrowdClips(scene);
+        drawBuffers.update(scene);
+
+        animationRender.render(scene, renderBuffers, cullRender);
+        drawBuffers.updateAnimSources(scene, animationRender);
+        shadowRender.updateCascadeShadows(scene);
+        cullRender.render(scene, drawBuffers, shadowRender.getCascadeShadows());
+        shadowRender.render(scene, renderBuffers, drawBuffers, cullRender);
+        sceneRender.render(scene, renderBuffers, gBuffer, drawBuffers, cullRender);
+        cullRender.cullOccluded(gBuffer, drawBuffers);
+        sceneRender.renderOccluded(scene, renderBuffers, gBuffer, drawBuffers, cullRender);
         lightRenderStart(window);
         lightsRender.render(scene, shadowRender, gBuffer);
         skyBoxRender.render(scene);
         lightRenderFinish();
         guiRender.render(scene, this);
+        drawBuffers.endFrame();
+        cullRender.endFrame();
 
     }
 
+    // Models dropped on the window are loaded here since it needs the GL context
+    private void loadPendingModels(Scene scene) {
+
+        if(DropFileLoadType.activeProg != null)
+            try{
+                DropFileLoadType.activeProg.wait();
+            }catch(InterruptedException e){
+                e.printStackTrace();
+            }
+
+        if(scene.isLoadListAvailable().tryAcquire())
+        {
+            while(!scene.getModelsToLoad().isEmpty()){
+                Scene.ModelToLoadData data = scene.getModelsToLoad().get(0);
+                Model m;
+                switch(data.getType()){
+                    case 0: 
+                        m = scene.loadStaticModel(data.getName(), data.getFile());
+                        break;
+                    case 1:
+                        m = scene.loadAnimModel(data.getName(), data.getFile());
+                        break;
+                    default:
+                        m = null;
+                        break;
+                    }
+                
+                if (m != null)
+                    addObject(scene, m);
+
+                scene.getModelsToLoad().remove(0);
+            }
+            scene.isLoadListAvailable().release();
+        }
+        if(DropFileLoadType.activeProg != null)
+            DropFileLoadType.activeProg.notify();
+    }
+
     public RenderBuffers getRenderBuffers(){
         return renderBuffers;
     }
 
+    public AnimationLod getAnimationLod(){
+        return animationRender.getAnimationLod();
+    }
+
+    public int getSharedPoseCount(){
+        return animationRender.getSharedCount();
+    }
+
+    public int getSkinnedCount(){
+        return animationRender.getSkinnedCount();
+    }
+
+    public int getSkippedSkinningCount(){
+        return animationRender.getSkippedCount();
+    }
+
+    // Static copies share the model's geometry and are drawn as extra instances
     public void dupStatic(Entity entity, Scene scene){
-        // renderBuffers.dupStaticModel(entity, scene);
-        sceneRender.updateData(scene, entity, false);
-        shadowRender.updateData(scene, entity);
+        // Animated instances start after the static ones, so a static change moves them too
+        drawBuffers.setupData(scene);
     }
 
+    // Crowd copies need no skinned vertices of their own either
     public void dupAnimated(Entity entity, Scene scene){
-        renderBuffers.dupAnimated(entity, scene);
-        sceneRender.updateData(scene, entity, true);
-        shadowRender.updateData(scene, entity);
+        if(!scene.getModelMap().get(entity.getModelID()).isCrowd())
+            renderBuffers.dupAnimated(entity);
+        drawBuffers.setupData(scene);
+    }
+
+    // Static and crowd entities draw the model's vertices, only skinned entities free ranges of their own
+    public void removeEntity(Entity entity, Scene scene){
+        Model model = scene.getModelMap().get(entity.getModelID());
+        if(model.isAnimated() && !model.isCrowd())
+            renderBuffers.freeSkinnedRanges(entity);
+        scene.removeEntity(entity.getHandle());
+        drawBuffers.setupData(scene);
     }
 
     public void addObject(Scene scene, Model model){
         if(!model.isAnimated())
             renderBuffers.addStaticModel(model);
+        else if(model.isCrowd())
+            renderBuffers.addCrowdModel(model);
         else
             renderBuffers.addAnimModel(model);
-        for(Entity entity : model.getEntityList()){
-            sceneRender.updateData(scene, entity, model.isAnimated());
-            shadowRender.updateData(scene, entity);
-        }
+        drawBuffers.setupData(scene);
+        sceneRender.setupData(scene);
     }
 
     public void setupData(Scene scene) {
         renderBuffers.loadStaticModels(scene);
         renderBuffers.loadAnimatedModels(scene);
+        renderBuffers.loadCrowdModels(scene);
+        drawBuffers.setupData(scene);
         sceneRender.setupData(scene);
-        shadowRender.setupData(scene);
         List<Model> modelList = new ArrayList<>(scene.getModelMap().values());
         modelList.forEach(m -> m.getMeshDataList().clear());
     }
 
     public void resize(int width, int height) {
         guiRender.resize(width, height);
+        // A minimized window has no size to render at
+        if(width == 0 || height == 0){
+            return;
+        }
+        gBuffer.cleanUp();
+        gBuffer = new GBuffer(width, height);
+        cullRender.resize(gBuffer);
     }
     
 }
@@ -1,8 +1,6 @@
 package src.engine.graphics;
 
-import org.joml.Matrix4f;
 import org.joml.Vector3f;
-import org.lwjgl.opengl.GL30;
 import org.lwjgl.system.MemoryUtil;
 
 import src.engine.scene.Entity;
@@ -14,917 +12,325 @@ import java.util.*;
 import static org.lwjgl.opengl.GL43.*;
 
 public class RenderBuffers {
-    
-    private int animVaoID;
-    private int bindingPosesBuffer;
-    private int bonesIndicesWeightsBuffer;
-    private int bonesMatricesBuffer;
-    private int destAnimationBuffer;
-    private int staticVaoID;
-    
-    private List<Integer> vboIDList;
-
-    private int staticArrOffset, staticIndicesOffset;
-    
-    private int animArrOffset, animIndicesOffset;
-
-    private int boneBufferSize;
-    private int animBufferSize;
-    private int poseMeshSize;
 
-    private int chunkBindingPoseOffset = 0;
-    private int chunkWeightsOffset = 0;
-
-    
-    public RenderBuffers(){
-        vboIDList = new ArrayList<>();
+    private static final int WEIGHTS_SIZE_FLOATS = 8;
+    // Buffers of the vertex arena
+    private static final int VERTICES = 0;
+    private static final int POSITIONS = 1;
+    // Offset of the model's own animated draw data, which is never drawn
+    public static final int NO_SKINNED_RANGE = -1;
+
+    // Format of the interleaved vertices of every arena and of the binding poses
+    private final VertexLayout vertexLayout;
+    // Static, skinned and crowd meshes share one vertex and index buffer, so any of them can be drawn together
+    private int vaoID;
+    // Reads only the position stream, for passes that only write depth
+    private int depthVaoID;
+
+    // Interleaved vertices and, at the same offsets, their positions alone
+    private GeometryArena vertexArena, indexArena;
+    private GeometryArena bindingPosesArena;
+    private GeometryArena bonesIndicesWeightsArena;
+    private VertexAnimationTexture vertexAnimationTexture;
+
+    public RenderBuffers(VertexLayout vertexLayout){
+        this.vertexLayout = vertexLayout;
+        vaoID = glGenVertexArrays();
+        depthVaoID = glGenVertexArrays();
+
+        vertexArena = new GeometryArena(new int[]{ vertexLayout.getStride(), vertexLayout.getPositionStride() }, 0);
+        // In 16 bit units, meshes with 32 bit indices take aligned pairs
+        indexArena = new GeometryArena(Short.BYTES);
+        bindingPosesArena = new GeometryArena(Float.BYTES);
+        bonesIndicesWeightsArena = new GeometryArena(Float.BYTES);
+        vertexAnimationTexture = new VertexAnimationTexture();
     }
 
     public void cleanup(){
-        vboIDList.stream().forEach(GL30::glDeleteBuffers);
-        glDeleteVertexArrays(staticVaoID);
-        glDeleteVertexArrays(animVaoID);
+        vertexArena.cleanup();
+        indexArena.cleanup();
+        bindingPosesArena.cleanup();
+        bonesIndicesWeightsArena.cleanup();
+        vertexAnimationTexture.cleanup();
+        glDeleteVertexArrays(vaoID);
+        glDeleteVertexArrays(depthVaoID);
     }
 
     public void defineVertexAttribs(){
-
-        int stride = 3 * 4 * 4 + 2 * 4;
-        int pointer = 0;
-        // Positions
-        glEnableVertexAttribArray(0);
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, stride, pointer);
-        pointer += 3 * 4;
-        // Normals
-        glEnableVertexAttribArray(1);
-        glVertexAttribPointer(1, 3, GL_FLOAT, false, stride, pointer);
-        pointer += 3 * 4;
-        // Tangents
-        glEnableVertexAttribArray(2);
-        glVertexAttribPointer(2, 3, GL_FLOAT, false, stride, pointer);
-        pointer += 3 * 4;
-        // Bitangents
-        glEnableVertexAttribArray(3);
-        glVertexAttribPointer(3, 3, GL_FLOAT, false, stride, pointer);
-        pointer += 3 * 4;
-        // Texture coordinates
-        glEnableVertexAttribArray(4);
-        glVertexAttribPointer(4, 2, GL_FLOAT, false, stride, pointer);
-
+        vertexLayout.defineVertexAttribs();
     }
 
-    public void loadAnimatedModels(Scene scene) {
-        List<Model> modelList = scene.getAnimModelList();
-        loadBindingPoses(modelList);
-        loadAnimationData(modelList);
-        loadBonesIndicesWeights(modelList);
-
-        animVaoID = glGenVertexArrays();
-        glBindVertexArray(animVaoID);
-        int positionsSize = 0;
-        int normalsSize = 0;
-        int textureCoordsSize = 0;
-        int indicesSize = 0;
-        int offset = 0;
-        int bindingPoseOffset = 0;
-        int weightsOffset = 0;
-        chunkBindingPoseOffset = 0;
-        chunkWeightsOffset = 0;
-
-        for (Model model : modelList) {
-            List<Entity> entities = model.getEntityList();
-            for(Entity entity : entities){
-                entity.setupDone();
-            }
-            for (Entity entity : entities) {
-                List<RenderBuffers.MeshDrawData> meshDrawDataList = model.getMeshDrawDataList();
-                bindingPoseOffset = chunkBindingPoseOffset;
-                weightsOffset = chunkWeightsOffset;
-                for (MeshData meshData : model.getMeshDataList()) {
-                    positionsSize += meshData.getPositions().length;
-                    normalsSize += meshData.getNormals().length;
-                    textureCoordsSize += meshData.getTextCoords().length;
-
-                    int meshSizeInBytes = (meshData.getPositions().length + meshData.getNormals().length * 3 + meshData.getTextCoords().length) * 4;
-                    meshDrawDataList.add(new MeshDrawData(
-                        meshSizeInBytes, meshData.getMaterialIdx(), offset,
-                            meshData.getIndices().length, indicesSize,
-                            meshData.getAabbMin(), meshData.getAabbMax(),
-                            new AnimMeshDrawData(entity, bindingPoseOffset, weightsOffset)
-                    ));
-                    entity.getMeshDrawDataList().add(meshDrawDataList.get(meshDrawDataList.size()-1));
-                    indicesSize += meshData.getIndices().length;
-                    bindingPoseOffset += meshSizeInBytes / 4;
-                    int groupSize = (int) Math.ceil((float) meshSizeInBytes / (14 * 4));
-                    weightsOffset += groupSize * 2 * 4;
-                    offset = positionsSize / 3;
-                }
-            }
-            chunkBindingPoseOffset = bindingPoseOffset;
-            chunkWeightsOffset = weightsOffset;
-
-        }
-
-        destAnimationBuffer = glGenBuffers();
-        vboIDList.add(destAnimationBuffer);
-        FloatBuffer meshesBuffer = MemoryUtil.memAllocFloat(positionsSize + normalsSize * 3 + textureCoordsSize);
-
-        animArrOffset = meshesBuffer.capacity();
-
-        for (Model model : modelList) {
-            model.getEntityList().forEach(e -> {
-                for (MeshData meshData : model.getMeshDataList()) {
-                    populateMeshBuffer(meshesBuffer, meshData);
-                }
-            });
-        }
-        meshesBuffer.flip();
-        glBindBuffer(GL_ARRAY_BUFFER, destAnimationBuffer);
-        glBufferData(GL_ARRAY_BUFFER, meshesBuffer, GL_DYNAMIC_DRAW);
-
-        // for(int i = 0; i < 100; i++){
-        //     System.out.print(meshesBuffer.get(i) +", ");
-        // }
-
-        // System.out.println("\n");
-
-        MemoryUtil.memFree(meshesBuffer);
-
+    // Arenas may have been reallocated by a grow, so the VAO is pointed at their current buffers
+    private void bindVao(int vaoID, GeometryArena vertexArena, GeometryArena indexArena){
+        glBindVertexArray(vaoID);
+        glBindBuffer(GL_ARRAY_BUFFER, vertexArena.getBufferID(VERTICES));
         defineVertexAttribs();
-
-        // Index VBO
-        int vboId = glGenBuffers();
-        vboIDList.add(vboId);
-        IntBuffer indicesBuffer = MemoryUtil.memAllocInt(indicesSize);
-
-        animIndicesOffset = indicesBuffer.capacity();
-
-        for (Model model : modelList) {
-            model.getEntityList().forEach(e -> {
-                for (MeshData meshData : model.getMeshDataList()) {
-                    indicesBuffer.put(meshData.getIndices());
-                }
-            });
-        }
-
-        // for(int i = 0; i < 100; i++){
-        //     System.out.print(indicesBuffer.get(i) +", ");
-        // }
-
-        // System.out.println("\n");
-
-        indicesBuffer.flip();
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboId);
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_DYNAMIC_DRAW);
-        MemoryUtil.memFree(indicesBuffer);
-
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexArena.getBufferID());
         glBindVertexArray(0);
-    }
-
-    public void addAnimModel(Model model){
-        addBindingPose(model);
-        addAnimationData(model);
-        addBonesIndicesWeights(model);
-
-        glBindVertexArray(animVaoID);
-
-        List<Entity> entities = model.getEntityList();
-
-        int meshesSize = 0;
-        int verticesSize = 0;
-        int weightsOffset = chunkWeightsOffset;
-        int bindingPoseOffset = chunkBindingPoseOffset;
-
-        for(Entity entity : model.getEntityList()){
-            entity.setupDone();
-        }
-
-        for (Entity entity : entities) {
-            List<RenderBuffers.MeshDrawData> meshDrawDataList = model.getMeshDrawDataList();
-
-            for (MeshData meshData : model.getMeshDataList()) {
-
-                int meshSizeInBytes = (meshData.getPositions().length + meshData.getNormals().length * 3 + meshData.getTextCoords().length) * 4;
-
-                meshDrawDataList.add(new MeshDrawData(
-                    meshSizeInBytes, meshData.getMaterialIdx(),
-                    (animArrOffset+meshesSize/4)/14,
-                    meshData.getIndices().length, animIndicesOffset + verticesSize,
-                    meshData.getAabbMin(), meshData.getAabbMax(),
-                    new AnimMeshDrawData(entity, bindingPoseOffset, weightsOffset)
-                ));
-
-                entity.getMeshDrawDataList().add(meshDrawDataList.get(meshDrawDataList.size()-1));
-
-                bindingPoseOffset += meshSizeInBytes / 4;
-                int groupSize = (int) Math.ceil((float) meshSizeInBytes / (14 * 4));
-                weightsOffset += groupSize * 2 * 4;
-                verticesSize += meshData.getIndices().length;
-                meshesSize += meshSizeInBytes;
-            }
-
-        }
-        chunkBindingPoseOffset = bindingPoseOffset;
-        chunkWeightsOffset = weightsOffset;
-
-        FloatBuffer meshesBuffer = MemoryUtil.memAllocFloat(animArrOffset);
-        animArrOffset += meshesSize/(Float.SIZE/Byte.SIZE);
-        FloatBuffer newMeshesBuffer = MemoryUtil.memAllocFloat(animArrOffset);
-
-        glBindBuffer(GL_ARRAY_BUFFER, destAnimationBuffer);
-        glGetBufferSubData(GL_ARRAY_BUFFER, 0, meshesBuffer);
-
-        newMeshesBuffer.put(0, meshesBuffer, 0, meshesBuffer.capacity());
-
-        newMeshesBuffer.position(meshesBuffer.capacity());
-        
-        MemoryUtil.memFree(meshesBuffer);
-
-        model.getEntityList().forEach(e -> {
-            for (MeshData meshData : model.getMeshDataList()) {
-                populateMeshBuffer(newMeshesBuffer, meshData);
-            }
-        });
-
-        
-        // for(int i = animArrOffset-meshesSize/(Float.SIZE/Byte.SIZE); i < animArrOffset-meshesSize/(Float.SIZE/Byte.SIZE)+100; i++){
-        //     System.out.print(newMeshesBuffer.get(i) +", ");
-        // }
-
-        // System.out.println("\n");
-
-        newMeshesBuffer.flip();
-
-        glBufferData(GL_ARRAY_BUFFER, newMeshesBuffer, GL_DYNAMIC_DRAW);
-        
-        MemoryUtil.memFree(newMeshesBuffer);
-
-        IntBuffer indicesBuffer = MemoryUtil.memAllocInt(animIndicesOffset);
-        animIndicesOffset += verticesSize;
-        IntBuffer newIndicesBuffer = MemoryUtil.memAllocInt(animIndicesOffset);
-
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboIDList.get(6));
-        glGetBufferSubData(GL_ELEMENT_ARRAY_BUFFER, 0, indicesBuffer);
-
-        newIndicesBuffer.put(0, indicesBuffer, 0, indicesBuffer.capacity());
-
-        newIndicesBuffer.position(indicesBuffer.capacity());
-
-        MemoryUtil.memFree(indicesBuffer);
-
-        model.getEntityList().forEach(e -> {
-            for (MeshData meshData : model.getMeshDataList()) {
-                newIndicesBuffer.put(meshData.getIndices());
-            }
-        });
-
-        newIndicesBuffer.flip();
-
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, newIndicesBuffer, GL_DYNAMIC_DRAW);
-        
-        // for(int i = animIndicesOffset-verticesSize; i < animIndicesOffset-verticesSize+100; i++){
-        //     System.out.print(newIndicesBuffer.get(i) +", ");
-        // }
-
-        // System.out.println("\n");
-
-        MemoryUtil.memFree(newIndicesBuffer);
-
         glBindBuffer(GL_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);
-
-        model.getMeshDataList().clear();
     }
 
-    public void dupAnimated(Entity entity, Scene scene){
-
-        glBindVertexArray(animVaoID);
-
-        int size = 0;
-        int indices = 0;
-
-        for(MeshDrawData drawData : entity.getMeshDrawDataList()){
-            size += drawData.sizeInBytes()/(Float.SIZE/Byte.SIZE);
-            indices += drawData.vertices();
-        }
-
-        FloatBuffer meshesBuffer = MemoryUtil.memAllocFloat(animArrOffset);
-        FloatBuffer newmeshesBuffer = MemoryUtil.memAllocFloat(animArrOffset + size);
-
-        IntBuffer indicesBuffer = MemoryUtil.memAllocInt(animIndicesOffset);
-        IntBuffer newindicesBuffer = MemoryUtil.memAllocInt(animIndicesOffset + indices);
-
-        glBindBuffer(GL_ARRAY_BUFFER, destAnimationBuffer);
-        glGetBufferSubData(GL_ARRAY_BUFFER, 0, meshesBuffer);
-        
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboIDList.get(6));
-        glGetBufferSubData(GL_ELEMENT_ARRAY_BUFFER, 0, indicesBuffer);
-
-        newmeshesBuffer.put(0, meshesBuffer, 0, meshesBuffer.capacity());
-
-        newindicesBuffer.put(0, indicesBuffer, 0, indicesBuffer.capacity());
-
-        MemoryUtil.memFree(meshesBuffer);
-        MemoryUtil.memFree(indicesBuffer);
-
-        size = 0;
-        indices = 0;
-        for(MeshDrawData drawData : entity.getMeshDrawDataList()){
-
-            FloatBuffer addMesh = MemoryUtil.memAllocFloat(drawData.sizeInBytes() / (Float.SIZE/Byte.SIZE));
-
-            glGetBufferSubData(GL_ARRAY_BUFFER, (drawData.offset() * (Float.SIZE/Byte.SIZE)) * 14, addMesh);
-
-            newmeshesBuffer.put(animArrOffset + size, addMesh, 0, addMesh.capacity());
-
-            size+=addMesh.capacity();
-
-            IntBuffer addIndices = MemoryUtil.memAllocInt(drawData.vertices());
-            glGetBufferSubData(GL_ELEMENT_ARRAY_BUFFER, drawData.vertexOffset()* (Integer.SIZE/Byte.SIZE), addIndices);
-            
-            newindicesBuffer.put(animIndicesOffset + indices, addIndices, 0, addIndices.capacity());
-
-            indices += addIndices.capacity();
-
-            // for(int j = 0; j < 100; j++){
-                // System.out.print(addMesh.get(j) + ", ");
-            // }
-
-            // System.out.println("\n");
-
-            MemoryUtil.memFree(addMesh);
-            MemoryUtil.memFree(addIndices);
-        }
-
-        size = 0;
-        indices = 0;
-        List<MeshDrawData> drawDataList = entity.getMeshDrawDataList();
-        for(int i = 0; i < drawDataList.size(); i++){
-            MeshDrawData drawData = drawDataList.get(i);
-            AnimMeshDrawData animData = drawData.animMeshDrawData();
-            entity.getMeshDrawDataList().add(i,
-            new MeshDrawData(drawData.sizeInBytes(),  drawData.materialIdx(), (animArrOffset+size)/14,  drawData.vertices(),  animIndicesOffset + indices,
-            drawData.aabbMin(),  drawData.aabbMax(),
-            new AnimMeshDrawData(entity, animData.bindingPoseOffset(), animData.weightsOffset())));
-    
-            indices += drawData.vertices();
-            size += drawData.sizeInBytes()/4;
-            entity.getMeshDrawDataList().remove(drawData);
-        }
-        
-        animArrOffset = newmeshesBuffer.capacity();
-        animIndicesOffset = newindicesBuffer.capacity();
-        
-        glBufferData(GL_ARRAY_BUFFER, newmeshesBuffer, GL_DYNAMIC_DRAW);
-
-        // for(int j = 0; j < 100; j++){
-        //     System.out.print(newmeshesBuffer.get(j) + ", ");
-        // }
-
-        // System.out.println("\n");
-
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, newindicesBuffer, GL_DYNAMIC_DRAW);
-
-        MemoryUtil.memFree(newmeshesBuffer);
-        MemoryUtil.memFree(newindicesBuffer);
-
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    // Same indices as the full VAO, base vertices work in both since the position stream mirrors the offsets
+    private void bindDepthVao(int vaoID, GeometryArena vertexArena, GeometryArena indexArena){
+        glBindVertexArray(vaoID);
+        glBindBuffer(GL_ARRAY_BUFFER, vertexArena.getBufferID(POSITIONS));
+        vertexLayout.defineDepthVertexAttribs();
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexArena.getBufferID());
         glBindVertexArray(0);
-
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
     }
 
-    private void loadAnimationData(List<Model> modelList) {
-        animBufferSize = 0;
-        for (Model model : modelList) {
-            List<Model.Animation> animationList = model.getAnimationList();
-            for (Model.Animation animation : animationList) {
-                List<Model.AnimatedFrame> frameList = animation.frames();
-                for (Model.AnimatedFrame frame : frameList) {
-                    Matrix4f[] matrices = frame.getBonesMatrices();
-                    animBufferSize += matrices.length * 64;
-                }
-            }
-        }
-        
+    private void bindVaos(){
+        bindVao(vaoID, vertexArena, indexArena);
+        bindDepthVao(depthVaoID, vertexArena, indexArena);
+    }
 
-        bonesMatricesBuffer = glGenBuffers();
-        vboIDList.add(bonesMatricesBuffer);
-        ByteBuffer dataBuffer = MemoryUtil.memAlloc(animBufferSize);
-        int matrixSize = 4 * 4 * 4;
-        for (Model model : modelList) {
-            List<Model.Animation> animationList = model.getAnimationList();
-            for (Model.Animation animation : animationList) {
-                List<Model.AnimatedFrame> frameList = animation.frames();
-                for (Model.AnimatedFrame frame : frameList) {
-                    frame.setOffset(dataBuffer.position() / matrixSize);
-                    Matrix4f[] matrices = frame.getBonesMatrices();
-                    for (Matrix4f matrix : matrices) {
-                        matrix.get(dataBuffer);
-                        dataBuffer.position(dataBuffer.position() + matrixSize);
-                    }
-                    frame.clearData();
-                }
-            }
+    public void loadAnimatedModels(Scene scene) {
+        for (Model model : scene.getAnimModelList()) {
+            addAnimModel(model);
         }
-        dataBuffer.flip();
-
-        glBindBuffer(GL_SHADER_STORAGE_BUFFER, bonesMatricesBuffer);
-        glBufferData(GL_SHADER_STORAGE_BUFFER, dataBuffer, GL_DYNAMIC_DRAW);
-        MemoryUtil.memFree(dataBuffer);
     }
 
-    private void addAnimationData(Model model){
-
-        ByteBuffer dataBuffer = MemoryUtil.memAlloc(animBufferSize);
-
-        glBindBuffer(GL_SHADER_STORAGE_BUFFER, bonesMatricesBuffer);
-
-        glGetBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, dataBuffer);
+    public void addAnimModel(Model model){
 
-        List<Model.Animation> animationList = model.getAnimationList();
-        for (Model.Animation animation : animationList) {
-            List<Model.AnimatedFrame> frameList = animation.frames();
-            for (Model.AnimatedFrame frame : frameList) {
-                Matrix4f[] matrices = frame.getBonesMatrices();
-                animBufferSize += matrices.length * 64;
-            }
+        // Binding poses and weights only depend on the model, all its entities share them
+        List<MeshData> meshDataList = model.getMeshDataList();
+        int[] bindingPoseOffsets = new int[meshDataList.size()];
+        int[] weightsOffsets = new int[meshDataList.size()];
+        for (int i = 0; i < meshDataList.size(); i++) {
+            MeshData meshData = meshDataList.get(i);
+            int numVertices = meshData.getPositions().length / 3;
+            bindingPoseOffsets[i] = bindingPosesArena.allocate(numVertices * vertexLayout.getStrideWords());
+            uploadMesh(bindingPosesArena, bindingPoseOffsets[i], meshData);
+            weightsOffsets[i] = bonesIndicesWeightsArena.allocate(numVertices * WEIGHTS_SIZE_FLOATS);
+            uploadBonesIndicesWeights(weightsOffsets[i], meshData);
         }
 
-
-        ByteBuffer newDataBuffer = MemoryUtil.memAlloc(animBufferSize);
-
-        newDataBuffer.put(0, dataBuffer, 0, dataBuffer.capacity());
-        
-        newDataBuffer.position(dataBuffer.capacity());
-
-        MemoryUtil.memFree(dataBuffer);
-
-        int matrixSize = 4*4*4;
-
-        for (Model.Animation animation : animationList) {
-            List<Model.AnimatedFrame> frameList = animation.frames();
-            for (Model.AnimatedFrame frame : frameList) {
-                frame.setOffset(newDataBuffer.position() / matrixSize);
-                Matrix4f[] matrices = frame.getBonesMatrices();
-                for (Matrix4f matrix : matrices) {
-                    matrix.get(newDataBuffer);
-                    newDataBuffer.position(newDataBuffer.position() + matrixSize);
-                }
-                frame.clearData();
-            }
+        // Indices are relative to the base vertex, so one copy serves every entity's skinned range
+        int[] indicesOffsets = new int[meshDataList.size()];
+        boolean[] shortIndices = new boolean[meshDataList.size()];
+        for (int i = 0; i < meshDataList.size(); i++) {
+            MeshData meshData = meshDataList.get(i);
+            shortIndices[i] = fitsShortIndices(meshData.getPositions().length / 3);
+            indicesOffsets[i] = uploadIndices(meshData.getIndices(), shortIndices[i]);
         }
 
-        newDataBuffer.flip();
-
-        glBufferData(GL_SHADER_STORAGE_BUFFER, newDataBuffer, GL_DYNAMIC_DRAW);
-        MemoryUtil.memFree(newDataBuffer);
-        
-    }
-
-    private void loadBindingPoses(List<Model> modelList) {
-        poseMeshSize = 0;
-        for (Model model : modelList) {
-            for (MeshData meshData : model.getMeshDataList()) {
-                poseMeshSize += meshData.getPositions().length + meshData.getNormals().length * 3 +
-                        meshData.getTextCoords().length;
-            }
+        // The model keeps one entry per mesh without a skinned range, entities copy it with a range of their own
+        List<RenderBuffers.MeshDrawData> meshDrawDataList = model.getMeshDrawDataList();
+        for (int i = 0; i < meshDataList.size(); i++) {
+            MeshData meshData = meshDataList.get(i);
+            int numVertices = meshData.getPositions().length / 3;
+            meshDrawDataList.add(new MeshDrawData(
+                numVertices * vertexLayout.getStride(), meshData.getMaterialIdx(), NO_SKINNED_RANGE,
+                meshData.getIndices().length, indicesOffsets[i], shortIndices[i],
+                meshData.getAabbMin(), meshData.getAabbMax(),
+                new AnimMeshDrawData(bindingPoseOffsets[i], weightsOffsets[i])
+            ));
         }
 
-        bindingPosesBuffer = glGenBuffers();
-        vboIDList.add(bindingPosesBuffer);
-        FloatBuffer meshesBuffer = MemoryUtil.memAllocFloat(poseMeshSize);
-        for (Model model : modelList) {
-            for (MeshData meshData : model.getMeshDataList()) {
-                populateMeshBuffer(meshesBuffer, meshData);
-            }
+        for (Entity entity : model.getEntityList()) {
+            entity.setupDone();
+            List<MeshDrawData> drawDataList = entity.getMeshDrawDataList();
+            drawDataList.clear();
+            drawDataList.addAll(meshDrawDataList);
+            allocateSkinnedRanges(drawDataList);
         }
-        meshesBuffer.flip();
 
-        glBindBuffer(GL_SHADER_STORAGE_BUFFER, bindingPosesBuffer);
-        glBufferData(GL_SHADER_STORAGE_BUFFER, meshesBuffer, GL_DYNAMIC_DRAW);
-        MemoryUtil.memFree(meshesBuffer);
+        bindVaos();
 
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        model.getMeshDataList().clear();
     }
 
-    private void addBindingPose(Model model){
-
-        FloatBuffer meshesBuffer = MemoryUtil.memAllocFloat(poseMeshSize);
-        for(MeshData meshData: model.getMeshDataList())
-            poseMeshSize += meshData.getPositions().length + meshData.getNormals().length * 3 +
-                    meshData.getTextCoords().length;
-        
-        FloatBuffer newMeshesBuffer = MemoryUtil.memAllocFloat(poseMeshSize);
+    // Binding poses, weights and indices are shared with the model, so a copy only needs its own destination range
+    public void dupAnimated(Entity entity){
 
-        glBindBuffer(GL_SHADER_STORAGE_BUFFER, bindingPosesBuffer);
-        glGetBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, meshesBuffer);
+        allocateSkinnedRanges(entity.getMeshDrawDataList());
+        bindVaos();
 
-        newMeshesBuffer.put(0, meshesBuffer, 0, meshesBuffer.capacity());
-        
-        newMeshesBuffer.position(meshesBuffer.capacity());
-       
-        MemoryUtil.memFree(meshesBuffer);
+    }
 
-        for (MeshData meshData : model.getMeshDataList()) {
-            populateMeshBuffer(newMeshesBuffer, meshData);
+    // Only the destination ranges are the entity's own, binding poses, weights and indices stay with the model
+    public void freeSkinnedRanges(Entity entity){
+        for (MeshDrawData drawData : entity.getMeshDrawDataList()) {
+            if(drawData.offset() == NO_SKINNED_RANGE) continue;
+            vertexArena.free(drawData.offset(), drawData.sizeInBytes() / vertexLayout.getStride());
         }
-        
-        newMeshesBuffer.flip();
-        glBufferData(GL_SHADER_STORAGE_BUFFER, newMeshesBuffer, GL_DYNAMIC_DRAW);
-
-        MemoryUtil.memFree(newMeshesBuffer);
-
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-
     }
 
-    private void loadBonesIndicesWeights(List<Model> modelList) {
-
-        boneBufferSize = 0;
-
-        for (Model model : modelList) {
-            for (MeshData meshData : model.getMeshDataList()) {
-                boneBufferSize += meshData.getBoneIndices().length * 4 + meshData.getWeights().length * 4;
-            }
-        }
-        ByteBuffer dataBuffer = MemoryUtil.memAlloc(boneBufferSize);
-        for (Model model : modelList) {
-            for (MeshData meshData : model.getMeshDataList()) {
-                int[] bonesIndices = meshData.getBoneIndices();
-                float[] weights = meshData.getWeights();
-                int rows = bonesIndices.length / 4;
-                for (int row = 0; row < rows; row++) {
-                    int startPos = row * 4;
-                    dataBuffer.putFloat(weights[startPos]);
-                    dataBuffer.putFloat(weights[startPos + 1]);
-                    dataBuffer.putFloat(weights[startPos + 2]);
-                    dataBuffer.putFloat(weights[startPos + 3]);
-                    dataBuffer.putFloat(bonesIndices[startPos]);
-                    dataBuffer.putFloat(bonesIndices[startPos + 1]);
-                    dataBuffer.putFloat(bonesIndices[startPos + 2]);
-                    dataBuffer.putFloat(bonesIndices[startPos + 3]);
-                }
-            }
+    // Nothing is uploaded, skinning writes the whole range before the entity is first drawn
+    private void allocateSkinnedRanges(List<MeshDrawData> drawDataList){
+        for(int i = 0; i < drawDataList.size(); i++){
+            MeshDrawData drawData = drawDataList.get(i);
+            int vertexOffset = vertexArena.allocate(drawData.sizeInBytes() / vertexLayout.getStride());
+            drawDataList.set(i,
+            new MeshDrawData(drawData.sizeInBytes(), drawData.materialIdx(), vertexOffset, drawData.vertices(), drawData.vertexOffset(),
+            drawData.shortIndices(), drawData.aabbMin(), drawData.aabbMax(), drawData.animMeshDrawData()));
         }
-        dataBuffer.flip();
-
-        bonesIndicesWeightsBuffer = glGenBuffers();
-        vboIDList.add(bonesIndicesWeightsBuffer);
-        glBindBuffer(GL_SHADER_STORAGE_BUFFER, bonesIndicesWeightsBuffer);
-        glBufferData(GL_SHADER_STORAGE_BUFFER, dataBuffer, GL_DYNAMIC_DRAW);
-        MemoryUtil.memFree(dataBuffer);
-
-        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
     }
 
-    private void addBonesIndicesWeights(Model model){
+    private void uploadBonesIndicesWeights(int offset, MeshData meshData){
 
-        ByteBuffer dataBuffer = MemoryUtil.memAlloc(boneBufferSize);
-
-        glBindBuffer(GL_SHADER_STORAGE_BUFFER, bonesIndicesWeightsBuffer);
-        
-        glGetBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, dataBuffer);
-
-        for (MeshData meshData : model.getMeshDataList()) {
-            boneBufferSize += meshData.getBoneIndices().length * 4 + meshData.getWeights().length * 4;
+        int[] bonesIndices = meshData.getBoneIndices();
+        float[] weights = meshData.getWeights();
+        int rows = bonesIndices.length / 4;
+        FloatBuffer dataBuffer = MemoryUtil.memAllocFloat(rows * WEIGHTS_SIZE_FLOATS);
+        for (int row = 0; row < rows; row++) {
+            int startPos = row * 4;
+            dataBuffer.put(weights[startPos]);
+            dataBuffer.put(weights[startPos + 1]);
+            dataBuffer.put(weights[startPos + 2]);
+            dataBuffer.put(weights[startPos + 3]);
+            dataBuffer.put(bonesIndices[startPos]);
+            dataBuffer.put(bonesIndices[startPos + 1]);
+            dataBuffer.put(bonesIndices[startPos + 2]);
+            dataBuffer.put(bonesIndices[startPos + 3]);
         }
+        dataBuffer.flip();
 
-        ByteBuffer newDataBuffer = MemoryUtil.memAlloc(boneBufferSize);
-
-        newDataBuffer.put(0, dataBuffer, 0, dataBuffer.capacity());
-        
-        newDataBuffer.position(dataBuffer.capacity());
+        bonesIndicesWeightsArena.upload(offset, dataBuffer);
         MemoryUtil.memFree(dataBuffer);
 
-        for (MeshData meshData : model.getMeshDataList()) {
-            int[] bonesIndices = meshData.getBoneIndices();
-            float[] weights = meshData.getWeights();
-            int rows = bonesIndices.length / 4;
-            for (int row = 0; row < rows; row++) {
-                int startPos = row * 4;
-                newDataBuffer.putFloat(weights[startPos]);
-                newDataBuffer.putFloat(weights[startPos + 1]);
-                newDataBuffer.putFloat(weights[startPos + 2]);
-                newDataBuffer.putFloat(weights[startPos + 3]);
-                newDataBuffer.putFloat(bonesIndices[startPos]);
-                newDataBuffer.putFloat(bonesIndices[startPos + 1]);
-                newDataBuffer.putFloat(bonesIndices[startPos + 2]);
-                newDataBuffer.putFloat(bonesIndices[startPos + 3]);
-            }
-        }
-
-        newDataBuffer.flip();
-
-        glBufferData(GL_SHADER_STORAGE_BUFFER, newDataBuffer, GL_DYNAMIC_DRAW);
-        MemoryUtil.memFree(newDataBuffer);
-
-        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
-
     }
 
     public void loadStaticModels(Scene scene) {
-        List<Model> modelList = scene.getStaticModelList();
-        staticVaoID = glGenVertexArrays();
-        glBindVertexArray(staticVaoID);
-        int positionsSize = 0;
-        int normalsSize = 0;
-        int textureCoordsSize = 0;
-        int indicesSize = 0;
-        int offset = 0;
-
-        for (Model model : modelList) {
-            List<RenderBuffers.MeshDrawData> meshDrawDataList = model.getMeshDrawDataList();
-            for (MeshData meshData : model.getMeshDataList()) {
-                positionsSize += meshData.getPositions().length;
-                normalsSize += meshData.getNormals().length;
-                textureCoordsSize += meshData.getTextCoords().length;
-
-                int meshSizeInBytes = (meshData.getPositions().length + meshData.getNormals().length * 3 + meshData.getTextCoords().length) * (Float.SIZE/Byte.SIZE);
-                meshDrawDataList.add(new MeshDrawData(meshSizeInBytes, meshData.getMaterialIdx(), 
-                                    offset, meshData.getIndices().length, indicesSize,
-                                    meshData.getAabbMin(), meshData.getAabbMax()));
-
-                offset = positionsSize / 3;
-                indicesSize += meshData.getIndices().length;
-
-            }
-
-            for(Entity entity : model.getEntityList())
-                entity.setupDone();
-
-        }
-
-        int vboId = glGenBuffers();
-        vboIDList.add(vboId);
-        FloatBuffer meshesBuffer = MemoryUtil.memAllocFloat(positionsSize + normalsSize * 3 + textureCoordsSize);
-        for (Model model : modelList) {
-            for (MeshData meshData : model.getMeshDataList()) {
-                populateMeshBuffer(meshesBuffer, meshData);
-            }
+        for (Model model : scene.getStaticModelList()) {
+            addStaticModel(model);
         }
-
-        staticArrOffset = meshesBuffer.capacity();
-        
-        meshesBuffer.flip();
-        glBindBuffer(GL_ARRAY_BUFFER, vboId);
-        glBufferData(GL_ARRAY_BUFFER, meshesBuffer, GL_DYNAMIC_DRAW);
-        
-        // for(int i = 0; i < meshesBuffer.capacity(); i++){
-        //     System.out.print(meshesBuffer.get(i) +", ");
-        // }
-
-        // System.out.println("\n");
-
-        MemoryUtil.memFree(meshesBuffer);
-
-        defineVertexAttribs();
-
-        // Index VBO
-        vboId = glGenBuffers();
-        vboIDList.add(vboId);
-        IntBuffer indicesBuffer = MemoryUtil.memAllocInt(indicesSize);
-        for (Model model : modelList) {
-            for (MeshData meshData : model.getMeshDataList()) {
-                indicesBuffer.put(meshData.getIndices());
-            }
-        }
-
-        staticIndicesOffset = indicesBuffer.capacity();
-
-        indicesBuffer.flip();
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboId);
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_DYNAMIC_DRAW);
-
-        MemoryUtil.memFree(indicesBuffer);
-
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);
     }
 
     public void addStaticModel(Model model){
-                
-        glBindVertexArray(staticVaoID);
-
-        int meshesSize = 0;
-        int indicesSize = 0;
 
         List<RenderBuffers.MeshDrawData> meshDrawDataList = model.getMeshDrawDataList();
-        
+
         for (MeshData meshData : model.getMeshDataList()) {
 
-           int meshSizeInBytes = (meshData.getPositions().length + meshData.getNormals().length * 3 + meshData.getTextCoords().length) * (Float.SIZE/Byte.SIZE);
-            
-            meshDrawDataList.add(new MeshDrawData(meshSizeInBytes, meshData.getMaterialIdx(), 
-            (staticArrOffset+ meshesSize/4)/14, meshData.getIndices().length, staticIndicesOffset + indicesSize,
-            meshData.getAabbMin(), meshData.getAabbMax()));
+            int numVertices = meshData.getPositions().length / 3;
+            int vertexOffset = vertexArena.allocate(numVertices);
+            boolean shortIndices = fitsShortIndices(numVertices);
+            uploadMesh(vertexArena, vertexOffset, meshData);
+            uploadPositions(vertexOffset, meshData);
+            int indicesOffset = uploadIndices(meshData.getIndices(), shortIndices);
 
-            meshesSize += meshSizeInBytes;
-            indicesSize += meshData.getIndices().length;
+            meshDrawDataList.add(new MeshDrawData(numVertices * vertexLayout.getStride(), meshData.getMaterialIdx(),
+            vertexOffset, meshData.getIndices().length, indicesOffset, shortIndices,
+            meshData.getAabbMin(), meshData.getAabbMax()));
 
         }
 
         for(Entity entity : model.getEntityList())
             entity.setupDone();
 
-        FloatBuffer meshesBuffer = MemoryUtil.memAllocFloat(staticArrOffset);
-        staticArrOffset += meshesSize/(Float.SIZE/Byte.SIZE);
-        FloatBuffer newmeshesBuffer = MemoryUtil.memAllocFloat(staticArrOffset);
-        
-        glBindBuffer(GL_ARRAY_BUFFER, vboIDList.get(0));
-        glGetBufferSubData(GL_ARRAY_BUFFER, 0, meshesBuffer);
-
-        newmeshesBuffer.put(0, meshesBuffer, 0, meshesBuffer.capacity());
+        bindVaos();
 
-        newmeshesBuffer.position(meshesBuffer.capacity());
-        MemoryUtil.memFree(meshesBuffer);
+        model.getMeshDataList().clear();
+    }
 
-        for (MeshData meshData : model.getMeshDataList()) {
-            populateMeshBuffer(newmeshesBuffer, meshData);
+    public void loadCrowdModels(Scene scene) {
+        for (Model model : scene.getCrowdModelList()) {
+            addCrowdModel(model);
         }
-        newmeshesBuffer.flip();
-
-        glBufferData(GL_ARRAY_BUFFER, newmeshesBuffer, GL_DYNAMIC_DRAW);
-
-        MemoryUtil.memFree(newmeshesBuffer);
-
-        IntBuffer indicesBuffer = MemoryUtil.memAllocInt(staticIndicesOffset);
-        staticIndicesOffset += indicesSize;
-        IntBuffer newindicesBuffer = MemoryUtil.memAllocInt(staticIndicesOffset);
-
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboIDList.get(1));
-        glGetBufferSubData(GL_ELEMENT_ARRAY_BUFFER, 0, indicesBuffer);
-
-        newindicesBuffer.put(0, indicesBuffer, 0, indicesBuffer.capacity());
-
-        newindicesBuffer.position(indicesBuffer.capacity());
+    }
 
-        MemoryUtil.memFree(indicesBuffer);
+    // Crowd meshes go with the static geometry, their binding pose gives the texture coordinates and the baked clips the rest
+    public void addCrowdModel(Model model){
+        vertexAnimationTexture.bake(model);
+        addStaticModel(model);
+    }
 
-        for (MeshData meshData : model.getMeshDataList()) {
-            newindicesBuffer.put(meshData.getIndices());
+    public void bakeNewCrowdClips(Scene scene){
+        for (Model model : scene.getCrowdModelList()) {
+            vertexAnimationTexture.bakeNewClips(model);
         }
+    }
 
-        newindicesBuffer.flip();
-
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, newindicesBuffer, GL_DYNAMIC_DRAW);
-
-        MemoryUtil.memFree(newindicesBuffer);
-
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);
-
-        model.getMeshDataList().clear();
+    private void uploadMesh(GeometryArena arena, int offset, MeshData meshData){
+        ByteBuffer meshBuffer = MemoryUtil.memAlloc(meshData.getPositions().length / 3 * vertexLayout.getStride());
+        vertexLayout.putVertices(meshBuffer, meshData);
+        meshBuffer.flip();
+        arena.upload(offset, meshBuffer);
+        MemoryUtil.memFree(meshBuffer);
     }
 
-    public void dupStaticModel(Entity entity, Scene scene){
-        glBindVertexArray(staticVaoID);
+    private void uploadPositions(int offset, MeshData meshData){
+        ByteBuffer positionsBuffer = MemoryUtil.memAlloc(meshData.getPositions().length / 3 * vertexLayout.getPositionStride());
+        vertexLayout.putPositions(positionsBuffer, meshData);
+        positionsBuffer.flip();
+        vertexArena.upload(POSITIONS, offset, positionsBuffer);
+        MemoryUtil.memFree(positionsBuffer);
+    }
 
-        int size = 0;
-        int indices = 0;
+    // Indices are relative to the base vertex, so they fit in 16 bits whatever the mesh's place in the arena
+    private static boolean fitsShortIndices(int numVertices){
+        return numVertices <= 1 << 16;
+    }
 
-        for(MeshDrawData drawData : entity.getMeshDrawDataList()){
-            size += drawData.sizeInBytes()/(Float.SIZE/Byte.SIZE);
-            indices += drawData.vertices();
+    // Returns the first index in units of the mesh's own index type, as draw commands expect it
+    private int uploadIndices(int[] indices, boolean shortIndices){
+        if(shortIndices){
+            int offset = indexArena.allocate(indices.length);
+            ByteBuffer indicesBuffer = MemoryUtil.memAlloc(indices.length * Short.BYTES);
+            for (int index : indices) {
+                indicesBuffer.putShort((short) index);
+            }
+            indicesBuffer.flip();
+            indexArena.upload(offset, indicesBuffer);
+            MemoryUtil.memFree(indicesBuffer);
+            return offset;
         }
 
-        FloatBuffer meshesBuffer = MemoryUtil.memAllocFloat(staticArrOffset);
-        FloatBuffer newmeshesBuffer = MemoryUtil.memAllocFloat(staticArrOffset + size);
-
-        IntBuffer indicesBuffer = MemoryUtil.memAllocInt(staticIndicesOffset);
-        IntBuffer newindicesBuffer = MemoryUtil.memAllocInt(staticIndicesOffset + indices);
-        
-        glBindBuffer(GL_ARRAY_BUFFER, vboIDList.get(0));
-        glGetBufferSubData(GL_ARRAY_BUFFER, 0, meshesBuffer);
-        
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboIDList.get(1));
-        glGetBufferSubData(GL_ELEMENT_ARRAY_BUFFER, 0, indicesBuffer);
-
-        newmeshesBuffer.put(0, meshesBuffer, 0, meshesBuffer.capacity());
-
-        newindicesBuffer.put(0, indicesBuffer, 0, indicesBuffer.capacity());
-
-        MemoryUtil.memFree(meshesBuffer);
+        // One spare unit to start on a 4 byte boundary
+        int offset = (indexArena.allocate(indices.length * 2 + 1) + 1) & ~1;
+        IntBuffer indicesBuffer = MemoryUtil.memAllocInt(indices.length);
+        indicesBuffer.put(0, indices);
+        indexArena.upload(offset, indicesBuffer);
         MemoryUtil.memFree(indicesBuffer);
-
-        glBindBuffer(GL_ARRAY_BUFFER, vboIDList.get(0));
-
-        for(MeshDrawData drawData : entity.getMeshDrawDataList()){
-
-            FloatBuffer addMesh = MemoryUtil.memAllocFloat(drawData.sizeInBytes() / (Float.SIZE/Byte.SIZE));
-
-            glGetBufferSubData(GL_ARRAY_BUFFER, (drawData.offset() * (Float.SIZE/Byte.SIZE)) * 14, addMesh);
-
-            newmeshesBuffer.put(staticArrOffset, addMesh, 0, addMesh.capacity());
-
-            IntBuffer addIndices = MemoryUtil.memAllocInt(drawData.vertices());
-            glGetBufferSubData(GL_ELEMENT_ARRAY_BUFFER, drawData.vertexOffset()* (Integer.SIZE/Byte.SIZE), addIndices);
-            
-            newindicesBuffer.put(staticIndicesOffset, addIndices, 0, addIndices.capacity());
-
-            // System.out.println(model.getID());
-            // for(int j = 0; j < addMesh.capacity(); j++){
-            //     System.out.print(addMesh.get(j) + ", ");
-            // }
-
-            // System.out.println("\n");
-
-            MemoryUtil.memFree(addMesh);
-            MemoryUtil.memFree(addIndices);
-        }
-
-        List<MeshDrawData> drawDataList = entity.getMeshDrawDataList();
-        for(int i = 0; i < drawDataList.size(); i++){
-            MeshDrawData drawData = drawDataList.get(i);
-            entity.getMeshDrawDataList().add(i,
-            new MeshDrawData(drawData.sizeInBytes(),  drawData.materialIdx(), staticArrOffset/14,  drawData.vertices(),  staticIndicesOffset,
-            drawData.aabbMin(),  drawData.aabbMax(),
-            drawData.animMeshDrawData()));
-    
-            entity.getMeshDrawDataList().remove(drawData);
-        }
-
-        staticArrOffset = newmeshesBuffer.capacity();
-        staticIndicesOffset = newindicesBuffer.capacity();
-        
-        glBufferData(GL_ARRAY_BUFFER, newmeshesBuffer, GL_DYNAMIC_DRAW);
-
-        // for(int j = 0; j < newmeshesBuffer.capacity(); j++){
-        //     System.out.print(newmeshesBuffer.get(j) + ", ");
-        // }
-
-        // System.out.println("\n");
-
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, newindicesBuffer, GL_DYNAMIC_DRAW);
-
-        MemoryUtil.memFree(newmeshesBuffer);
-        MemoryUtil.memFree(newindicesBuffer);
-
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);
+        return offset / 2;
     }
 
-    private void populateMeshBuffer(FloatBuffer meshesBuffer, MeshData meshData) {
-        float[] positions = meshData.getPositions();
-        float[] normals = meshData.getNormals();
-        float[] tangents = meshData.getTangents();
-        float[] bitangents = meshData.getBitangents();
-        float[] textCoords = meshData.getTextCoords();
-
-        int rows = positions.length / 3;
-        for (int row = 0; row < rows; row++) {
-            int startPos = row * 3;
-            int startTextCoord = row * 2;
-            meshesBuffer.put(positions[startPos]);
-            meshesBuffer.put(positions[startPos + 1]);
-            meshesBuffer.put(positions[startPos + 2]);
-            meshesBuffer.put(normals[startPos]);
-            meshesBuffer.put(normals[startPos + 1]);
-            meshesBuffer.put(normals[startPos + 2]);
-            meshesBuffer.put(tangents[startPos]);
-            meshesBuffer.put(tangents[startPos + 1]);
-            meshesBuffer.put(tangents[startPos + 2]);
-            meshesBuffer.put(bitangents[startPos]);
-            meshesBuffer.put(bitangents[startPos + 1]);
-            meshesBuffer.put(bitangents[startPos + 2]);
-            meshesBuffer.put(textCoords[startTextCoord]);
-            meshesBuffer.put(textCoords[startTextCoord + 1]);
-        }
+    public int getVaoID() {
+        return vaoID;
     }
 
-    public int getAnimVaoID() {
-        return animVaoID;
+    public int getDepthVaoID() {
+        return depthVaoID;
     }
 
     public int getBindingPosesBuffer() {
-        return bindingPosesBuffer;
+        return bindingPosesArena.getBufferID();
     }
 
     public int getBonesIndicesWeightsBuffer() {
-        return bonesIndicesWeightsBuffer;
+        return bonesIndicesWeightsArena.getBufferID();
     }
 
-    public int getBonesMatricesBuffer() {
-        return bonesMatricesBuffer;
+    public int getDestAnimationBuffer() {
+        return vertexArena.getBufferID(VERTICES);
     }
 
-    public int getDestAnimationBuffer() {
-        return destAnimationBuffer;
+    public int getDestPositionsBuffer() {
+        return vertexArena.getBufferID(POSITIONS);
+    }
+
+    public VertexLayout getVertexLayout() {
+        return vertexLayout;
     }
 
-    public final int getStaticVaoID() {
-        return staticVaoID;
+    public VertexAnimationTexture getVertexAnimationTexture() {
+        return vertexAnimationTexture;
     }
 
-    public record AnimMeshDrawData(Entity entity, int bindingPoseOffset, int weightsOffset) {
+    // Shared by the model and all its entities
+    public record AnimMeshDrawData(int bindingPoseOffset, int weightsOffset) {
     }
     
+    // vertexOffset is the first index, in 16 or 32 bit units as shortIndices says
     public record MeshDrawData(int sizeInBytes, int materialIdx, int offset, int vertices, int vertexOffset,
-                                Vector3f aabbMin, Vector3f aabbMax,
+                                boolean shortIndices, Vector3f aabbMin, Vector3f aabbMax,
                                AnimMeshDrawData animMeshDrawData) {
         public MeshDrawData(int sizeInBytes, int materialIdx, int offset, int vertices, int vertexOffset,
-        Vector3f aabbMin, Vector3f aabbMax) {
+        boolean shortIndices, Vector3f aabbMin, Vector3f aabbMax) {
             this(sizeInBytes, materialIdx, offset, vertices, vertexOffset,
-            aabbMin, aabbMax, null);
+            shortIndices, aabbMin, aabbMax, null);
 
         }
         
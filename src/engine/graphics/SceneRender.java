@@ -1,11 +1,8 @@
 package src.engine.graphics;
 
-import org.joml.Matrix4f;
-import org.lwjgl.system.MemoryUtil;
 import src.engine.scene.*;
-import src.game.DropFileLoadType;
 
-import org.tinylog.Logger;
+import org.lwjgl.system.MemoryUtil;
 
 import java.nio.ByteBuffer;
 import java.util.*;
@@ -13,516 +10,167 @@ import java.util.*;
 import static org.lwjgl.opengl.GL11.GL_BLEND;
 import static org.lwjgl.opengl.GL11.GL_COLOR_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11.GL_DEPTH_BUFFER_BIT;
-import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
-import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
 import static org.lwjgl.opengl.GL11.glClear;
 import static org.lwjgl.opengl.GL11.glDisable;
 import static org.lwjgl.opengl.GL11.glEnable;
 import static org.lwjgl.opengl.GL11.glViewport;
-import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
-import static org.lwjgl.opengl.GL13.glActiveTexture;
-import static org.lwjgl.opengl.GL15.GL_DYNAMIC_DRAW;
-import static org.lwjgl.opengl.GL15.glBindBuffer;
-import static org.lwjgl.opengl.GL15.glBufferData;
-import static org.lwjgl.opengl.GL15.glDeleteBuffers;
-import static org.lwjgl.opengl.GL15.glGenBuffers;
-import static org.lwjgl.opengl.GL15.glGetBufferSubData;
 import static org.lwjgl.opengl.GL20.GL_FRAGMENT_SHADER;
 import static org.lwjgl.opengl.GL20.GL_VERTEX_SHADER;
 import static org.lwjgl.opengl.GL30.GL_DRAW_FRAMEBUFFER;
 import static org.lwjgl.opengl.GL30.glBindFramebuffer;
 import static org.lwjgl.opengl.GL30.glBindVertexArray;
-import static org.lwjgl.opengl.GL40.GL_DRAW_INDIRECT_BUFFER;
 import static org.lwjgl.opengl.GL43.*;
+import static src.engine.graphics.UniformMap.*;
 
 public class SceneRender {
 
+    public static final int MATERIALS_BINDING = 3;
 
-    public static final int MAX_DRAW_ELEMENTS = 100;
-    public static final int MAX_ENTITIES = 50;
-    private static final int COMMAND_SIZE = 5 * 4;
-    private static final int MAX_MATERIALS = 20;
-    private static final int MAX_TEXTURES = 16;
+    // diffuse, specular, reflectance, normalMapIdx, textureIdx and padding, std430
+    private static final int MATERIAL_SIZE = 12 * 4;
 
-    private int animDrawCount;
-    private int animRenderBufferHandle;
-    
-    private Map<String, Integer> entitiesIdxMap;
-    
     private Shader shader;
     
     private UniformMap uniformsMap;
-    
-    private int staticDrawCount;
-    private int staticRenderBufferHandle;
-
-    private int currMatSize;
-    private int currEntityMapSize;
+    private Mat4Uniform projectionMatrix;
+    private Mat4Uniform viewMatrix;
+    private IntUniform meshMode;
+    private IntUniform firstCrowdInstance;
+    private FloatUniform crowdTime;
 
-    // private int staticfirstIndex;
-    private int staticbaseInstance;
-    
-    // private int animfirstIndex;
-    private int animbaseInstance;
+    // Materials are only appended to the cache, so the buffer only receives the ones added since the last frame
+    private GeometryArena materialsArena;
+    private int numUploadedMaterials;
 
-    public SceneRender(){
+    public SceneRender(VertexLayout vertexLayout){
 
         List<Shader.ShaderModuleData> shaderModuleDataList = new ArrayList<Shader.ShaderModuleData>();
-        shaderModuleDataList.add(new Shader.ShaderModuleData("resources/shaders/scene.vs", GL_VERTEX_SHADER));
+        shaderModuleDataList.add(new Shader.ShaderModuleData("resources/shaders/scene.vs", GL_VERTEX_SHADER, vertexLayout.getShaderDefines()));
         shaderModuleDataList.add(new Shader.ShaderModuleData("resources/shaders/scene.fs", GL_FRAGMENT_SHADER));
         
         shader = new Shader(shaderModuleDataList);
-        
-        entitiesIdxMap = new HashMap<>();
-
-        currMatSize = 0;
-        currEntityMapSize = 0;
-        // staticfirstIndex = 0;
-        staticbaseInstance = 0;
 
+        materialsArena = new GeometryArena(MATERIAL_SIZE, 64);
+        numUploadedMaterials = 0;
         createUniforms();
         
     }
 
     public void cleanup(){
         shader.cleanup();
-        glDeleteBuffers(staticRenderBufferHandle);
-        glDeleteBuffers(animRenderBufferHandle);
+        materialsArena.cleanup();
     }
 
     private void createUniforms(){
 
         uniformsMap = new UniformMap(shader.getProgramId());
         
-        uniformsMap.createUniform("projectionMatrix");
-        uniformsMap.createUniform("viewMatrix");
-
-        for (int i = 0; i < MAX_TEXTURES; i++) {
-            uniformsMap.createUniform("txtSampler[" + i + "]");
-        }
+        projectionMatrix = uniformsMap.createUniform("projectionMatrix", Mat4Uniform::new);
+        viewMatrix = uniformsMap.createUniform("viewMatrix", Mat4Uniform::new);
 
-        for (int i = 0; i < MAX_MATERIALS; i++) {
-            String name = "materials[" + i + "]";
-            uniformsMap.createUniform(name + ".diffuse");
-            uniformsMap.createUniform(name + ".specular");
-            uniformsMap.createUniform(name + ".reflectance");
-            uniformsMap.createUniform(name + ".normalMapIdx");
-            uniformsMap.createUniform(name + ".textureIdx");
-        }
-
-        for (int i = 0; i < MAX_DRAW_ELEMENTS; i++) {
-            String name = "drawElements[" + i + "]";
-            uniformsMap.createUniform(name + ".modelMatrixIdx");
-            uniformsMap.createUniform(name + ".materialIdx");
-            uniformsMap.createUniform(name + ".selected");
-        }
-
-        for (int i = 0; i < MAX_ENTITIES; i++) {
-            uniformsMap.createUniform("modelMatrices[" + i + "]");
+        // Samplers never change unit, so they are set once
+        UniformArray<IntUniform> txtArrays = uniformsMap.createUniformArray("txtArrays", "",
+            TextureArrays.MAX_BUCKETS, IntUniform::new);
+        IntUniform vatSampler = uniformsMap.createUniform("vatSampler", IntUniform::new);
+        shader.bind();
+        for (int i = 0; i < TextureArrays.MAX_BUCKETS; i++) {
+            uniformsMap.setUniform(txtArrays.get(i), TextureArrays.TEXTURE_UNIT_BASE + i);
         }
+        uniformsMap.setUniform(vatSampler, VertexAnimationTexture.TEXTURE_UNIT);
+        shader.unbind();
 
-        uniformsMap.createUniform("meshMode");
+        meshMode = uniformsMap.createUniform("meshMode", IntUniform::new);
+        firstCrowdInstance = uniformsMap.createUniform("firstCrowdInstance", IntUniform::new);
+        crowdTime = uniformsMap.createUniform("crowdTime", FloatUniform::new);
 
     }
 
-    public void render(Scene scene, RenderBuffers renderBuffers, GBuffer gBuffer, Render render) {
-
-        if(DropFileLoadType.activeProg != null)
-            try{
-                DropFileLoadType.activeProg.wait();
-            }catch(InterruptedException e){
-                e.printStackTrace();
-            }
-
-        if(scene.isLoadListAvailable().tryAcquire())
-        {
-            while(!scene.getModelsToLoad().isEmpty()){
-                Scene.ModelToLoadData data = scene.getModelsToLoad().get(0);
-                Model m;
-                switch(data.getType()){
-                    case 0: 
-                        m = scene.loadStaticModel(data.getName(), data.getFile());
-                        break;
-                    case 1:
-                        m = scene.loadAnimModel(data.getName(), data.getFile());
-                        break;
-                    default:
-                        m = null;
-                        break;
-                    }
-                
-                if (m != null)
-                    render.addObject(scene, m);
-
-                scene.getModelsToLoad().remove(0);
-            }
-            scene.isLoadListAvailable().release();
-        }
-        if(DropFileLoadType.activeProg != null)
-            DropFileLoadType.activeProg.notify();
+    public void render(Scene scene, RenderBuffers renderBuffers, GBuffer gBuffer, DrawBuffers drawBuffers, CullRender cullRender) {
 
-        if(scene.getModelMap().size() != currEntityMapSize){
-            setupData(scene);
-        }
-
-        if(scene.getMaterialCache().getMaterialList().size() != currMatSize){
-            setupMaterialsUniform(scene.getTextureCache(), scene.getMaterialCache());
+        if(scene.getMaterialCache().getMaterialList().size() != numUploadedMaterials){
+            uploadMaterials(scene.getTextureCache(), scene.getMaterialCache());
         }
 
         glBindFramebuffer(GL_DRAW_FRAMEBUFFER, gBuffer.getGBufferId());
         glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-        glViewport(0, 0, gBuffer.getWidth(), gBuffer.getHeight());
-        glDisable(GL_BLEND);
-
-        shader.bind();
 
-        uniformsMap.setUniform("projectionMatrix", scene.getProjection().getProjMatrix());
-        uniformsMap.setUniform("viewMatrix", scene.getCamera().getViewMatrix());
-
-        TextureCache textureCache = scene.getTextureCache();
-        List<Texture> textures = textureCache.getAll().stream().toList();
-        Entity selectedEntity = scene.getSelectedEntity();
-        int numTextures = textures.size();
-        if (numTextures > MAX_TEXTURES) {
-            Logger.warn("Only " + MAX_TEXTURES + " textures can be used");
-        }
-        for (int i = 0; i < Math.min(MAX_TEXTURES, numTextures); i++) {
-            uniformsMap.setUniform("txtSampler[" + i + "]", i);
-            Texture texture = textures.get(i);
-            glActiveTexture(GL_TEXTURE0 + i);
-            texture.bind();
-        }
-
-        int entityIdx = 0;
-        for (Model model : scene.getModelMap().values()) {
-            List<Entity> entities = model.getEntityList();
-            for (Entity entity : entities) {
-                if(entity.isVisible())
-                    uniformsMap.setUniform("modelMatrices[" + entityIdx + "]", entity.getModelMatrix());
-                else{
-                    Matrix4f temp = new Matrix4f();
-                    temp.scale(0f);
-                    uniformsMap.setUniform("modelMatrices[" + entityIdx + "]", temp);
-                }
-                entityIdx++;
-            }
-        }
-
-        // Static meshes
-        int drawElement = 0;
-        List<Model> modelList = scene.getStaticModelList();
-        for (Model model : modelList) {
-            List<Entity> entities = model.getEntityList();
-            for (Entity entity : entities) {
-                for (RenderBuffers.MeshDrawData meshDrawData : entity.getMeshDrawDataList()) {
-                    String name = "drawElements[" + drawElement + "]";
-                    uniformsMap.setUniform(name + ".selected", 
-                    selectedEntity != null && selectedEntity.getID().equals(entity.getID()) ? 1 : 0);
-                    uniformsMap.setUniform(name + ".modelMatrixIdx", entitiesIdxMap.get(entity.getID()));
-                    uniformsMap.setUniform(name + ".materialIdx", meshDrawData.materialIdx());
-                    drawElement++;
-                }
-            }
-        }
-
-        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, staticRenderBufferHandle);
-        glBindVertexArray(renderBuffers.getStaticVaoID());
-        glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, 0, staticDrawCount, 0);
-
-        // Animated meshes
-        drawElement = 0;
-        modelList = scene.getAnimModelList();
-        for (Model model : modelList) {
-            for(Entity entity : model.getEntityList())
-                for (RenderBuffers.MeshDrawData meshDrawData : entity.getMeshDrawDataList()) {
-                    String name = "drawElements[" + drawElement + "]";
-                    uniformsMap.setUniform(name + ".selected", 
-                    selectedEntity != null && selectedEntity.getID().equals(entity.getID()) ? 1 : 0);
-                    uniformsMap.setUniform(name + ".modelMatrixIdx", entitiesIdxMap.get(entity.getID()));
-                    uniformsMap.setUniform(name + ".materialIdx", meshDrawData.materialIdx());
-                    drawElement++;
-                }
-        }
-
-        uniformsMap.setUniform("meshMode", scene.isMeshMode() ? 1 : 0);
-
-        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, animRenderBufferHandle);
-        glBindVertexArray(renderBuffers.getAnimVaoID());
-        glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, 0, animDrawCount, 0);
-
-        glBindVertexArray(0);
-        glEnable(GL_BLEND);
-        shader.unbind();
-        
+        renderView(scene, renderBuffers, gBuffer, drawBuffers, cullRender, CullRender.CAMERA_VIEW);
     }
 
-    private void setupAnimCommandBuffer(Scene scene) {
-        List<Model> modelList = scene.getAnimModelList();
-        int numMeshes = 0;
-        for (Model model : modelList) {
-            for(Entity entity : model.getEntityList())
-                numMeshes += entity.getMeshDrawDataList().size();
-        }
+    // Draws, on top of the first pass, the instances that only the second occlusion phase found visible
+    public void renderOccluded(Scene scene, RenderBuffers renderBuffers, GBuffer gBuffer, DrawBuffers drawBuffers, CullRender cullRender) {
 
-        // animfirstIndex = 0;
-        animbaseInstance = 0;
-        ByteBuffer commandBuffer = MemoryUtil.memAlloc(numMeshes * COMMAND_SIZE);
-        for (Model model : modelList) {
-            for(Entity entity : model.getEntityList())
-                for (RenderBuffers.MeshDrawData meshDrawData : entity.getMeshDrawDataList()) {
-                    // count
-                    commandBuffer.putInt(meshDrawData.vertices());
-                    // instanceCount
-                    commandBuffer.putInt(1);
-                    commandBuffer.putInt(meshDrawData.vertexOffset());
-                    // baseVertex
-                    commandBuffer.putInt(meshDrawData.offset());
-                    commandBuffer.putInt(animbaseInstance);
-
-                    // animfirstIndex += meshDrawData.vertices();
-                    animbaseInstance += 1;
-                }
+        if(!cullRender.isOcclusionCulling()){
+            return;
         }
-        commandBuffer.flip();
-
-        animDrawCount = commandBuffer.remaining() / COMMAND_SIZE;
-
-        glDeleteBuffers(animRenderBufferHandle);
-
-        animRenderBufferHandle = glGenBuffers();
-        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, animRenderBufferHandle);
-        glBufferData(GL_DRAW_INDIRECT_BUFFER, commandBuffer, GL_DYNAMIC_DRAW);
-
-        MemoryUtil.memFree(commandBuffer);
-    }
-
-    private void updateAnimCommandBuffer(Scene scene, Entity entity){
-        List<Model> modelList = scene.getAnimModelList();
-        int numMeshes = 0;
-        for (Model model : modelList) {
-            for(Entity ent : model.getEntityList())
-                if(ent != entity)
-                    numMeshes += ent.getMeshDrawDataList().size();
-        }
-
-        ByteBuffer commandBuffer = MemoryUtil.memAlloc(numMeshes * COMMAND_SIZE);
-
-        numMeshes+=entity.getMeshDrawDataList().size();
-
-        ByteBuffer newcommandBuffer = MemoryUtil.memAlloc(numMeshes * COMMAND_SIZE);
-        
-        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, animRenderBufferHandle);
-        glGetBufferSubData(GL_DRAW_INDIRECT_BUFFER, 0, commandBuffer);
-
-        newcommandBuffer.put(0, commandBuffer, 0, commandBuffer.capacity());
 
-        newcommandBuffer.position(commandBuffer.capacity());
-
-        MemoryUtil.memFree(commandBuffer);
-
-        for(RenderBuffers.MeshDrawData meshDrawData : entity.getMeshDrawDataList()){
-            // count
-            newcommandBuffer.putInt(meshDrawData.vertices());
-            // instanceCount
-            newcommandBuffer.putInt(1);
-            newcommandBuffer.putInt(meshDrawData.vertexOffset());
-            // baseVertex
-            newcommandBuffer.putInt(meshDrawData.offset());
-            newcommandBuffer.putInt(animbaseInstance);
-
-            // animfirstIndex += meshDrawData.vertices();
-            animbaseInstance += 1;
-
-        }
-
-        newcommandBuffer.flip();
-
-        animDrawCount = newcommandBuffer.remaining() / COMMAND_SIZE;
-
-        glBufferData(GL_DRAW_INDIRECT_BUFFER, newcommandBuffer, GL_DYNAMIC_DRAW);
-
-        // for(int i = 0; i < newcommandBuffer.capacity(); i+=4){
-        //     System.out.print(newcommandBuffer.getInt(i) + " ");
-        // }
-
-        // System.out.println();
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, gBuffer.getGBufferId());
 
-        MemoryUtil.memFree(newcommandBuffer);
+        renderView(scene, renderBuffers, gBuffer, drawBuffers, cullRender, CullRender.OCCLUSION_VIEW);
     }
 
-    private void setupStaticCommandBuffer(Scene scene) {
-        List<Model> modelList = scene.getStaticModelList();
-        int numMeshes = 0;
-        for (Model model : modelList) {
-            for(Entity entity : model.getEntityList())
-                numMeshes += entity.getMeshDrawDataList().size();
-        }
-
-        // staticfirstIndex = 0;
-        staticbaseInstance = 0;
-
-        ByteBuffer commandBuffer = MemoryUtil.memAlloc(numMeshes * COMMAND_SIZE);
-        for (Model model : modelList) {
-            List<Entity> entities = model.getEntityList();
-            for(Entity entity : entities)
-                for (RenderBuffers.MeshDrawData meshDrawData : entity.getMeshDrawDataList()) {
-                    // count
-                    commandBuffer.putInt(meshDrawData.vertices());
-                    // instanceCount
-                    commandBuffer.putInt(1);
-                    commandBuffer.putInt(meshDrawData.vertexOffset());
-                    // baseVertex
-                    commandBuffer.putInt(meshDrawData.offset());
-                    commandBuffer.putInt(staticbaseInstance);
-
-                    // staticfirstIndex += meshDrawData.vertices();
-                    staticbaseInstance += 1;
-                }
-        }
-        
-        commandBuffer.flip();
+    private void renderView(Scene scene, RenderBuffers renderBuffers, GBuffer gBuffer, DrawBuffers drawBuffers, CullRender cullRender, int view) {
 
-        staticDrawCount = commandBuffer.remaining() / COMMAND_SIZE;
+        glViewport(0, 0, gBuffer.getWidth(), gBuffer.getHeight());
+        glDisable(GL_BLEND);
 
-        staticRenderBufferHandle = glGenBuffers();
-        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, staticRenderBufferHandle);
-        glBufferData(GL_DRAW_INDIRECT_BUFFER, commandBuffer, GL_DYNAMIC_DRAW);
+        shader.bind();
 
-        // for(int i = 0; i < commandBuffer.capacity(); i+=4){
-        //     System.out.print(commandBuffer.getInt(i) + " ");
-        // }
+        uniformsMap.setUniform(projectionMatrix, scene.getProjection().getProjMatrix());
+        uniformsMap.setUniform(viewMatrix, scene.getCamera().getViewMatrix());
+        uniformsMap.setUniform(meshMode, scene.isMeshMode() ? 1 : 0);
 
-        // System.out.println();
+        scene.getTextureCache().getTextureArrays().bind();
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, MATERIALS_BINDING, materialsArena.getBufferID());
+        drawBuffers.bind();
+        cullRender.bind();
 
-        MemoryUtil.memFree(commandBuffer);
-    }
+        // Crowd instances are posed by the vertex shader from the baked clips
+        renderBuffers.getVertexAnimationTexture().bind();
+        uniformsMap.setUniform(firstCrowdInstance, drawBuffers.getFirstCrowdInstance());
+        uniformsMap.setUniform(crowdTime, drawBuffers.getCrowdTime(scene));
 
-    private void updateStaticCommandBuffer(Scene scene, Entity entity){
- 
-        List<Model> modelList = scene.getStaticModelList();
-        int numMeshes = 0;
-        for (Model model : modelList) {
-            for(Entity ent : model.getEntityList())
-                if(ent != entity)
-                    numMeshes += ent.getMeshDrawDataList().size();
-        }
+        // Static, animated and crowd meshes in one go
+        glBindVertexArray(renderBuffers.getVaoID());
+        cullRender.draw(view);
 
-        ByteBuffer commandBuffer = MemoryUtil.memAlloc(numMeshes * COMMAND_SIZE);
-        
-        numMeshes+=entity.getMeshDrawDataList().size();
-        
-        ByteBuffer newcommandBuffer = MemoryUtil.memAlloc(numMeshes * COMMAND_SIZE);
+        glBindVertexArray(0);
+        glEnable(GL_BLEND);
+        shader.unbind();
         
-        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, staticRenderBufferHandle);
-        glGetBufferSubData(GL_DRAW_INDIRECT_BUFFER, 0, commandBuffer);
-
-        newcommandBuffer.put(0, commandBuffer, 0, commandBuffer.capacity());
-
-        newcommandBuffer.position(commandBuffer.capacity());
-
-        MemoryUtil.memFree(commandBuffer);
-
-        for(RenderBuffers.MeshDrawData meshDrawData : entity.getMeshDrawDataList()){
-            // count
-            newcommandBuffer.putInt(meshDrawData.vertices());
-            // instanceCount
-            newcommandBuffer.putInt(1);
-            newcommandBuffer.putInt(meshDrawData.vertexOffset());
-            // baseVertex
-            newcommandBuffer.putInt(meshDrawData.offset());
-            newcommandBuffer.putInt(staticbaseInstance);
-
-            // staticfirstIndex += meshDrawData.vertices();
-            staticbaseInstance += 1;
-
-        }
-
-        newcommandBuffer.flip();
-
-        staticDrawCount = newcommandBuffer.remaining() / COMMAND_SIZE;
-
-        glBufferData(GL_DRAW_INDIRECT_BUFFER, newcommandBuffer, GL_DYNAMIC_DRAW);
-
-        // for(int i = 0; i < newcommandBuffer.capacity(); i+=4){
-        //     System.out.print(newcommandBuffer.getInt(i) + " ");
-        // }
-
-        // System.out.println();
-
-        MemoryUtil.memFree(newcommandBuffer);
-
     }
 
-    private void setupMaterialsUniform(TextureCache textureCache, MaterialCache materialCache) {
-        List<Texture> textures = textureCache.getAll().stream().toList();
-        int numTextures = textures.size();
-        if (numTextures > MAX_TEXTURES) {
-            Logger.warn("Only " + MAX_TEXTURES + " textures can be used");
-        }
-        Map<String, Integer> texturePosMap = new HashMap<>();
-        for (int i = 0; i < Math.min(MAX_TEXTURES, numTextures); i++) {
-            texturePosMap.put(textures.get(i).getTexturePath(), i);
-        }
-
-        shader.bind();
+    private void uploadMaterials(TextureCache textureCache, MaterialCache materialCache) {
         List<Material> materialList = materialCache.getMaterialList();
-        int numMaterials = materialList.size();
-        for (int i = 0; i < numMaterials; i++) {
-            Material material = materialCache.getMaterial(i);
-            String name = "materials[" + i + "]";
-            uniformsMap.setUniform(name + ".diffuse", material.getDiffuseColor());
-            uniformsMap.setUniform(name + ".specular", material.getSpecularColor());
-            uniformsMap.setUniform(name + ".reflectance", material.getReflectance());
+        int numMaterials = materialList.size() - numUploadedMaterials;
+
+        ByteBuffer data = MemoryUtil.memAlloc(numMaterials * MATERIAL_SIZE);
+        for (int i = numUploadedMaterials; i < materialList.size(); i++) {
+            Material material = materialList.get(i);
+            material.getDiffuseColor().get(data);
+            data.position(data.position() + 4 * 4);
+            material.getSpecularColor().get(data);
+            data.position(data.position() + 4 * 4);
+            data.putFloat(material.getReflectance());
             String normalMapPath = material.getNormalMapPath();
-            int idx = 0;
-            if (normalMapPath != null) {
-                idx = texturePosMap.computeIfAbsent(normalMapPath, k -> 0);
-            }
-            uniformsMap.setUniform(name + ".normalMapIdx", idx);
-            Texture texture = textureCache.getTexture(material.getTexturePath());
-            idx = texturePosMap.computeIfAbsent(texture.getTexturePath(), k -> 0);
-
-            uniformsMap.setUniform(name + ".textureIdx", idx);
+            data.putInt(normalMapPath != null ? textureCache.getTextureIdx(normalMapPath) : TextureArrays.NO_TEXTURE);
+            data.putInt(textureCache.getTextureIdx(material.getTexturePath()));
+            data.putInt(0);
         }
-        shader.unbind();
+        data.flip();
 
-        currMatSize = materialList.size();
-    }
+        // Nothing is ever freed, so first fit hands out the ranges in order and the offset is the material index
+        int offset = materialsArena.allocate(numMaterials);
+        materialsArena.upload(offset, data);
+        MemoryUtil.memFree(data);
 
-    private void setupEntitiesData(Scene scene) {
-        entitiesIdxMap.clear();
-        int entityIdx = 0;
-        for (Model model : scene.getModelMap().values()) {
-            List<Entity> entities = model.getEntityList();
-            for (Entity entity : entities) {
-                entitiesIdxMap.put(entity.getID(), entityIdx);
-                entityIdx++;
-            }
-        }
-
-        currEntityMapSize = scene.getModelMap().size();
+        numUploadedMaterials = materialList.size();
     }
 
     public void setupData(Scene scene) {
-        setupEntitiesData(scene);
-        setupStaticCommandBuffer(scene);
-        setupAnimCommandBuffer(scene);
-        setupMaterialsUniform(scene.getTextureCache(), scene.getMaterialCache());
-    }
-
-    public void updateData(Scene scene, Entity entity, boolean animated) {
-        setupEntitiesData(scene);
-
-        if(!animated){
-            updateStaticCommandBuffer(scene, entity);
-            setupAnimCommandBuffer(scene);
-        }
-        else{
-            updateAnimCommandBuffer(scene, entity);
-            setupStaticCommandBuffer(scene);
+        if(scene.getMaterialCache().getMaterialList().size() != numUploadedMaterials){
+            uploadMaterials(scene.getTextureCache(), scene.getMaterialCache());
         }
-
-        setupMaterialsUniform(scene.getTextureCache(), scene.getMaterialCache());
     }
 
-}
\ No newline at end of file
+}
@@ -19,11 +19,20 @@ public class Shader {
         }
 
         List<Integer> shaderModules = new ArrayList<>();
-        shaderModuleDataList.forEach(s -> shaderModules.add(createShader(Utils.readFile(s.shaderFile), s.shaderType)));
+        shaderModuleDataList.forEach(s -> shaderModules.add(createShader(insertDefines(Utils.readFile(s.shaderFile), s.defines), s.shaderType)));
 
         link(shaderModules);
     }
 
+    // Defines have to come after the #version line, which must be the first one
+    private static String insertDefines(String shaderCode, String defines) {
+        if (defines == null || defines.isEmpty()) {
+            return shaderCode;
+        }
+        int versionEnd = shaderCode.indexOf('\n', shaderCode.indexOf("#version")) + 1;
+        return shaderCode.substring(0, versionEnd) + defines + shaderCode.substring(versionEnd);
+    }
+
     public void bind() {
         glUseProgram(programId);
     }
@@ -80,10 +89,16 @@ public class Shader {
 
         private String shaderFile;
         private int shaderType;
+        private String defines;
 
         ShaderModuleData(String sF, int sT) {
+            this(sF, sT, null);
+        }
+
+        ShaderModuleData(String sF, int sT, String d) {
             shaderFile = sF;
             shaderType = sT;
+            defines = d;
         }
     }
 }
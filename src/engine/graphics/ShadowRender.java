@@ -2,36 +2,26 @@ package src.engine.graphics;
 
 import src.engine.scene.*;
 
-import java.nio.ByteBuffer;
 import java.util.*;
 
-import org.joml.Matrix4f;
-import org.lwjgl.system.MemoryUtil;
-
 import static org.lwjgl.opengl.GL43.*;
+import static src.engine.graphics.UniformMap.*;
 
 public class ShadowRender {
 
-    private static final int COMMAND_SIZE = 5 * 4;
-
-    private int animDrawCount;
-    private int animRenderBufferHandle;
-    
     private ArrayList<CascadeShadow> cascadeShadows;
-    private Map<String, Integer> entitiesIdxMap;
     private Shader shader;
     private ShadowBuffer shadowBuffer;
 
     private UniformMap uniformMap;
+    private Mat4Uniform projViewMatrix;
+    private IntUniform firstCrowdInstance;
+    private FloatUniform crowdTime;
 
-    private int staticDrawCount;
-    private int staticRenderBufferHandle;
-    private int modelMapSize;
-
-    public ShadowRender(){
+    public ShadowRender(VertexLayout vertexLayout){
 
         List<Shader.ShaderModuleData> shaderModuleDataList = new ArrayList<>();
-        shaderModuleDataList.add(new Shader.ShaderModuleData("resources/shaders/shadow.vs", GL_VERTEX_SHADER));
+        shaderModuleDataList.add(new Shader.ShaderModuleData("resources/shaders/shadow.vs", GL_VERTEX_SHADER, vertexLayout.getShaderDefines()));
         shader = new Shader(shaderModuleDataList);
 
         shadowBuffer = new ShadowBuffer();
@@ -45,10 +35,6 @@ public class ShadowRender {
 
         }
 
-        modelMapSize = 0;
-
-        entitiesIdxMap = new HashMap<>();
-
         createUniforms();
 
     }
@@ -57,8 +43,6 @@ public class ShadowRender {
 
         shader.cleanup();
         shadowBuffer.cleanup();
-        glDeleteBuffers(staticRenderBufferHandle);
-        glDeleteBuffers(animRenderBufferHandle);
 
     }
 
@@ -66,98 +50,48 @@ public class ShadowRender {
 
         uniformMap = new UniformMap(shader.getProgramId());
 
-        uniformMap.createUniform("projViewMatrix");
-
-        for (int i = 0; i < SceneRender.MAX_DRAW_ELEMENTS; i++) {
-            String name = "drawElements[" + i + "]";
-            uniformMap.createUniform(name + ".modelMatrixIdx");
-        }
+        projViewMatrix = uniformMap.createUniform("projViewMatrix", Mat4Uniform::new);
+        firstCrowdInstance = uniformMap.createUniform("firstCrowdInstance", IntUniform::new);
+        crowdTime = uniformMap.createUniform("crowdTime", FloatUniform::new);
 
-        for (int i = 0; i < SceneRender.MAX_ENTITIES; i++) {
-            uniformMap.createUniform("modelMatrices[" + i + "]");
-        }
+        IntUniform vatSampler = uniformMap.createUniform("vatSampler", IntUniform::new);
+        shader.bind();
+        uniformMap.setUniform(vatSampler, VertexAnimationTexture.TEXTURE_UNIT);
+        shader.unbind();
     }
 
-    public void render(Scene scene, RenderBuffers renderBuffers) {
-
-        if(scene.getModelMap().size() != modelMapSize){
-            setupData(scene);
-        }
-
+    public void updateCascadeShadows(Scene scene){
         CascadeShadow.updateCascadeShadows(cascadeShadows, scene);
+    }
+
+    public void render(Scene scene, RenderBuffers renderBuffers, DrawBuffers drawBuffers, CullRender cullRender) {
 
         glBindFramebuffer(GL_FRAMEBUFFER, shadowBuffer.getDepthMapFBO());
         glViewport(0, 0, ShadowBuffer.SHADOW_MAP_WIDTH, ShadowBuffer.SHADOW_MAP_HEIGHT);
 
         shader.bind();
 
-        int entityIdx = 0;
-        for (Model model : scene.getModelMap().values()) {
-            List<Entity> entities = model.getEntityList();
-            for (Entity entity : entities) {
-                if(entity.isVisible())
-                    uniformMap.setUniform("modelMatrices[" + entityIdx + "]", entity.getModelMatrix());
-                else{
-                    Matrix4f temp = new Matrix4f();
-                    temp.scale(0f);
-                    uniformMap.setUniform("modelMatrices[" + entityIdx + "]", temp);
-                }
-                entityIdx++;
-            }
-        }
-
         for (int i = 0; i < CascadeShadow.SHADOW_MAP_CASCADE_COUNT; i++) {
             glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, shadowBuffer.getDepthMapTexture().getIDS()[i], 0);
             glClear(GL_DEPTH_BUFFER_BIT);
         }
 
-        // Static meshes
-        int drawElement = 0;
-        List<Model> modelList = scene.getStaticModelList();
-        for (Model model : modelList) {
-            List<Entity> entities = model.getEntityList();
-            //for (RenderBuffers.MeshDrawData meshDrawData : model.getMeshDrawDataList()) {
-                for (Entity entity : entities) {
-                    String name = "drawElements[" + drawElement + "]";
-                    uniformMap.setUniform(name + ".modelMatrixIdx", entitiesIdxMap.get(entity.getID()));
-                    drawElement++;
-                }
-            //}
-        }
-        
-        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, staticRenderBufferHandle);
-        glBindVertexArray(renderBuffers.getStaticVaoID());
-        for (int i = 0; i < CascadeShadow.SHADOW_MAP_CASCADE_COUNT; i++) {
-            glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, shadowBuffer.getDepthMapTexture().getIDS()[i], 0);
+        drawBuffers.bind();
+        cullRender.bind();
 
-            CascadeShadow shadowCascade = cascadeShadows.get(i);
-            uniformMap.setUniform("projViewMatrix", shadowCascade.getProjViewMatrix());
-
-            glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, 0, staticDrawCount, 0);
-        }
+        renderBuffers.getVertexAnimationTexture().bind();
+        uniformMap.setUniform(firstCrowdInstance, drawBuffers.getFirstCrowdInstance());
+        uniformMap.setUniform(crowdTime, drawBuffers.getCrowdTime(scene));
 
-        // Anim meshes
-        drawElement = 0;
-        modelList = scene.getAnimModelList();
-        for (Model model : modelList) {
-            for(Entity ent : model.getEntityList())
-                for (RenderBuffers.MeshDrawData meshDrawData : ent.getMeshDrawDataList()) {
-                    RenderBuffers.AnimMeshDrawData animMeshDrawData = meshDrawData.animMeshDrawData();
-                    Entity entity = animMeshDrawData.entity();
-                    String name = "drawElements[" + drawElement + "]";
-                    uniformMap.setUniform(name + ".modelMatrixIdx", entitiesIdxMap.get(entity.getID()));
-                    drawElement++;
-                }
-        }
-        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, animRenderBufferHandle);
-        glBindVertexArray(renderBuffers.getAnimVaoID());
+        // Only positions are fetched, static, animated and crowd meshes are drawn together
+        glBindVertexArray(renderBuffers.getDepthVaoID());
         for (int i = 0; i < CascadeShadow.SHADOW_MAP_CASCADE_COUNT; i++) {
             glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, shadowBuffer.getDepthMapTexture().getIDS()[i], 0);
 
             CascadeShadow shadowCascade = cascadeShadows.get(i);
-            uniformMap.setUniform("projViewMatrix", shadowCascade.getProjViewMatrix());
+            uniformMap.setUniform(projViewMatrix, shadowCascade.getProjViewMatrix());
 
-            glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, 0, animDrawCount, 0);
+            cullRender.draw(CullRender.CAMERA_VIEW + 1 + i);
         }
 
         glBindVertexArray(0);
@@ -174,170 +108,4 @@ public class ShadowRender {
         return shadowBuffer;
     }
 
-    public void setupData(Scene scene) {
-        setupEntitiesData(scene);
-        setupStaticCommandBuffer(scene);
-        setupAnimCommandBuffer(scene);
-    }
-
-    public void updateData(Scene scene, Entity entity){
-        setupEntitiesData(scene);
-        setupStaticCommandBuffer(scene);
-        setupAnimCommandBuffer(scene);
-    }
-
-    private void setupEntitiesData(Scene scene) {
-        entitiesIdxMap.clear();
-        int entityIdx = 0;
-        for (Model model : scene.getModelMap().values()) {
-            List<Entity> entities = model.getEntityList();
-            for (Entity entity : entities) {
-                entitiesIdxMap.put(entity.getID(), entityIdx);
-                entityIdx++;
-            }
-        }
-
-        modelMapSize = scene.getModelMap().size();
-    }
-
-    private void setupAnimCommandBuffer(Scene scene) {
-        List<Model> modelList = scene.getAnimModelList();
-        int numMeshes = 0;
-        for (Model model : modelList) {
-            for(Entity ent : model.getEntityList())
-            numMeshes += ent.getMeshDrawDataList().size();
-        }
-
-        int baseInstance = 0;
-        ByteBuffer commandBuffer = MemoryUtil.memAlloc(numMeshes * COMMAND_SIZE);
-        for (Model model : modelList) {
-            for(Entity ent: model.getEntityList())
-            for (RenderBuffers.MeshDrawData meshDrawData : ent.getMeshDrawDataList()) {
-                //RenderBuffers.AnimMeshDrawData animMeshDrawData = meshDrawData.animMeshDrawData();
-                //Entity entity = animMeshDrawData.entity();
-                // count
-                commandBuffer.putInt(meshDrawData.vertices());
-                // instanceCount
-                commandBuffer.putInt(1);
-                commandBuffer.putInt(meshDrawData.vertexOffset());
-                // baseVertex
-                commandBuffer.putInt(meshDrawData.offset());
-                commandBuffer.putInt(baseInstance);
-
-                baseInstance++;
-            }
-        }
-        commandBuffer.flip();
-
-        animDrawCount = commandBuffer.remaining() / COMMAND_SIZE;
-
-        glDeleteBuffers(animRenderBufferHandle);
-
-        animRenderBufferHandle = glGenBuffers();
-        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, animRenderBufferHandle);
-        glBufferData(GL_DRAW_INDIRECT_BUFFER, commandBuffer, GL_DYNAMIC_DRAW);
-
-        MemoryUtil.memFree(commandBuffer);
-    }
-
-    private void setupStaticCommandBuffer(Scene scene) {
-        List<Model> modelList = scene.getStaticModelList();
-        int numMeshes = 0;
-        for (Model model : modelList) {
-            List<Entity> entities = model.getEntityList();
-            for (Entity entity : entities) {
-                numMeshes += entity.getMeshDrawDataList().size();
-            }
-        }
-
-        int baseInstance = 0;
-        ByteBuffer commandBuffer = MemoryUtil.memAlloc(numMeshes * COMMAND_SIZE);
-        for (Model model : modelList) {
-            List<Entity> entities = model.getEntityList();
-            for(Entity ent : entities)
-                for (RenderBuffers.MeshDrawData meshDrawData : ent.getMeshDrawDataList()) {
-                    // count
-                    commandBuffer.putInt(meshDrawData.vertices());
-                    // instanceCount
-                    commandBuffer.putInt(1);
-                    commandBuffer.putInt(meshDrawData.vertexOffset());
-                    // baseVertex
-                    commandBuffer.putInt(meshDrawData.offset());
-                    commandBuffer.putInt(baseInstance);
-
-                    baseInstance += 1;
-                }
-        }
-
-        commandBuffer.flip();
-
-        staticDrawCount = commandBuffer.remaining() / COMMAND_SIZE;
-
-        glDeleteBuffers(staticRenderBufferHandle);
-
-        staticRenderBufferHandle = glGenBuffers();
-        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, staticRenderBufferHandle);
-        glBufferData(GL_DRAW_INDIRECT_BUFFER, commandBuffer, GL_DYNAMIC_DRAW);
-
-        MemoryUtil.memFree(commandBuffer);
-    }
-
-    // private void updateStaticCommandBuffer(Scene scene) {
-    //     List<Model> modelList = scene.getStaticModelList();
-    //     Map<String, Integer> entitiesIdxMap = new HashMap<>();
-    //     int entityIdx = 0;
-    //     int numMeshes = 0;
-    //     for (Model model : scene.getModelMap().values()) {
-    //         List<Entity> entities = model.getEntityList();
-    //         for (Entity entity : entities) {
-    //             numMeshes += entity.getMeshDrawDataList().size();
-    //             entitiesIdxMap.put(entity.getID(), entityIdx);
-    //             entityIdx++;
-    //         }
-    //     }
-
-    //     int firstIndex = 0;
-    //     int baseInstance = 0;
-    //     int drawElement = 0;
-    //     shader.bind();
-    //     ByteBuffer commandBuffer = MemoryUtil.memAlloc(numMeshes * COMMAND_SIZE);
-    //     for (Model model : modelList) {
-    //         List<Entity> entities = model.getEntityList();
-    //         int numEntities = entities.size();
-    //         for(Entity ent : model.getEntityList())
-    //             for (RenderBuffers.MeshDrawData meshDrawData : ent.getMeshDrawDataList()) {
-    //                 // count
-    //                 commandBuffer.putInt(meshDrawData.vertices());
-    //                 // instanceCount
-    //                 commandBuffer.putInt(numEntities);
-    //                 commandBuffer.putInt(firstIndex);
-    //                 // baseVertex
-    //                 commandBuffer.putInt(meshDrawData.offset());
-    //                 commandBuffer.putInt(baseInstance);
-
-    //                 firstIndex += meshDrawData.vertices();
-    //                 baseInstance += entities.size();
-
-    //                 for (Entity entity : entities) {
-    //                     String name = "drawElements[" + drawElement + "]";
-    //                     uniformMap.setUniform(name + ".modelMatrixIdx", entitiesIdxMap.get(entity.getID()));
-    //                     drawElement++;
-    //                 }
-    //             }
-    //     }
-
-    //     commandBuffer.flip();
-    //     shader.unbind();
-
-    //     staticDrawCount = commandBuffer.remaining() / COMMAND_SIZE;
-
-    //     glDeleteBuffers(staticRenderBufferHandle);
-
-    //     staticRenderBufferHandle = glGenBuffers();
-    //     glBindBuffer(GL_DRAW_INDIRECT_BUFFER, staticRenderBufferHandle);
-    //     glBufferData(GL_DRAW_INDIRECT_BUFFER, commandBuffer, GL_DYNAMIC_DRAW);
-
-    //     MemoryUtil.memFree(commandBuffer);
-    // }
-
 }
@@ -63,11 +63,13 @@ public class SkyBoxRender {
         Material material = skyBox.getMaterial();
         Mesh mesh = skyBox.getMesh();
         Texture texture = textureCache.getTexture(material.getTexturePath());
-        glActiveTexture(GL_TEXTURE0);
-        texture.bind();
+        if(texture != null){
+            glActiveTexture(GL_TEXTURE0);
+            texture.bind();
+        }
 
         uniformMap.setUniform("diffuse", material.getDiffuseColor());
-        uniformMap.setUniform("hasTexture", texture.getTexturePath().equals(TextureCache.DEFAULT_TEXTURE) ? 0 : 1);
+        uniformMap.setUniform("hasTexture", texture != null ? 1 : 0);
 
         glBindVertexArray(mesh.getVaoID());
 
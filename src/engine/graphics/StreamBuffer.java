@@ -0,0 +1,131 @@
+package src.engine.graphics;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.lwjgl.opengl.GL46.*;
+
+/*
+ * A buffer rewritten by the CPU every frame without waiting on the GPU. Its storage is NUM_REGIONS regions
+ * mapped once, persistently and coherently. Each begin() moves to the next region, and the fence placed by
+ * end() once the commands reading it are submitted keeps the CPU off that region until the GPU is done, so
+ * writing only waits when the CPU gets NUM_REGIONS frames ahead. Growing replaces the storage, the old one
+ * is released by the driver once the GPU no longer uses it.
+ */
+public class StreamBuffer {
+
+    public static final int NUM_REGIONS = 3;
+    private static final long WAIT_TIMEOUT = 1_000_000_000L;
+
+    private final int alignment;
+    private int bufferID;
+    private ByteBuffer mapped;
+    private int regionSize;
+    private int region;
+    private final long[] fences;
+    private int stallCount;
+
+    public StreamBuffer(int initialSize){
+        // Every region start has to be usable as a shader storage range
+        alignment = Math.max(4, glGetInteger(GL_SHADER_STORAGE_BUFFER_OFFSET_ALIGNMENT));
+        fences = new long[NUM_REGIONS];
+        region = NUM_REGIONS - 1;
+        allocate(initialSize);
+    }
+
+    public void cleanup(){
+        deleteFences();
+        glDeleteBuffers(bufferID);
+    }
+
+    private void allocate(int size){
+        regionSize = (size + alignment - 1) / alignment * alignment;
+        bufferID = glGenBuffers();
+        int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+        glBindBuffer(GL_COPY_WRITE_BUFFER, bufferID);
+        glBufferStorage(GL_COPY_WRITE_BUFFER, (long) regionSize * NUM_REGIONS, flags);
+        mapped = glMapBufferRange(GL_COPY_WRITE_BUFFER, 0, (long) regionSize * NUM_REGIONS, flags);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        if(mapped == null){
+            throw new RuntimeException("Could not map stream buffer of " + regionSize * NUM_REGIONS + " bytes");
+        }
+    }
+
+    private void deleteFences(){
+        for (int i = 0; i < NUM_REGIONS; i++) {
+            if(fences[i] != 0){
+                glDeleteSync(fences[i]);
+                fences[i] = 0;
+            }
+        }
+    }
+
+    // Moves to the next region and returns it for writing size bytes, valid until the next begin()
+    public ByteBuffer begin(int size){
+        if(size > regionSize){
+            // The new storage is not used by the GPU yet, so the old fences do not apply to it
+            deleteFences();
+            glDeleteBuffers(bufferID);
+            allocate(Math.max(size, regionSize * 2));
+        }
+
+        region = (region + 1) % NUM_REGIONS;
+        long fence = fences[region];
+        if(fence != 0){
+            int status = glClientWaitSync(fence, 0, 0);
+            if(status == GL_TIMEOUT_EXPIRED){
+                stallCount++;
+                do {
+                    status = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT);
+                } while (status == GL_TIMEOUT_EXPIRED);
+            }
+            glDeleteSync(fence);
+            fences[region] = 0;
+        }
+        return mapped.slice((int) getOffset(), regionSize).order(ByteOrder.nativeOrder());
+    }
+
+    // Copies the remaining bytes of data into a new region
+    public void write(ByteBuffer data){
+        ByteBuffer dest = begin(data.remaining());
+        MemoryUtil.memCopy(data, dest);
+    }
+
+    // To be called once every command reading the current region has been submitted
+    public void end(){
+        if(fences[region] != 0){
+            glDeleteSync(fences[region]);
+        }
+        fences[region] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+
+    public void bindRange(int target, int index, long size){
+        glBindBufferRange(target, index, bufferID, getOffset(), Math.max(size, 4));
+    }
+
+    public int getBufferID(){
+        return bufferID;
+    }
+
+    // Index of the current region, from 0 to NUM_REGIONS - 1
+    public int getRegion(){
+        return region;
+    }
+
+    // Byte offset of the current region
+    public long getOffset(){
+        return (long) region * regionSize;
+    }
+
+    public int getRegionSize(){
+        return regionSize;
+    }
+
+    // Times begin() found its region still in use by the GPU
+    public int getStallCount(){
+        return stallCount;
+    }
+
+}
@@ -12,6 +12,7 @@ public class Texture {
     
     private int textureID;
     private String texturePath;
+    private int width, height;
 
     public Texture(int width, int height, ByteBuffer buf){
 
@@ -49,14 +50,16 @@ public class Texture {
     }
 
     private void generateTexture(int width, int height, ByteBuffer buf){
+        this.width = width;
+        this.height = height;
         textureID = glGenTextures();
 
         glBindTexture(GL_TEXTURE_2D, textureID);
         glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, buf);
-        glGenerateMipmap(GL_TEXTURE_2D);
+        // Sampled without mipmaps, as are the texture array layers it is copied into
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, buf);
     }
 
     public int getTextureId(){
@@ -67,4 +70,12 @@ public class Texture {
         return texturePath;
     }
 
+    public int getWidth(){
+        return width;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
 }
@@ -0,0 +1,123 @@
+package src.engine.graphics;
+
+import org.tinylog.Logger;
+
+import java.util.*;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/*
+ * Every texture of the TextureCache copied into a layer of a GL_TEXTURE_2D_ARRAY, one array per texture size.
+ * The source texture can be deleted once added. Layers have a single level, textures are sampled without mipmaps.
+ * A texture is then addressed by a single int, bucket << 16 | layer, that materials store on the GPU.
+ * The arrays sit on texture units starting at TEXTURE_UNIT_BASE, above the ones the other passes use,
+ * so they only have to be bound again when a bucket is created or grows.
+ */
+public class TextureArrays {
+
+    public static final int MAX_BUCKETS = 16;
+    public static final int TEXTURE_UNIT_BASE = 16;
+    public static final int NO_TEXTURE = -1;
+
+    private static final int INITIAL_LAYERS = 4;
+
+    private List<Bucket> buckets;
+    private boolean dirty;
+
+    public TextureArrays(){
+        buckets = new ArrayList<>();
+        dirty = true;
+    }
+
+    public void cleanup(){
+        for (Bucket bucket : buckets) {
+            glDeleteTextures(bucket.textureID);
+        }
+    }
+
+    public int add(Texture texture){
+        Bucket bucket = null;
+        int bucketIdx = 0;
+        for (; bucketIdx < buckets.size(); bucketIdx++) {
+            Bucket b = buckets.get(bucketIdx);
+            if(b.width == texture.getWidth() && b.height == texture.getHeight()){
+                bucket = b;
+                break;
+            }
+        }
+        if(bucket == null){
+            if(buckets.size() == MAX_BUCKETS){
+                Logger.warn("Only " + MAX_BUCKETS + " texture sizes can be used, [" + texture.getTexturePath() + "] not added");
+                return NO_TEXTURE;
+            }
+            bucket = new Bucket(texture.getWidth(), texture.getHeight());
+            buckets.add(bucket);
+            dirty = true;
+        }
+
+        if(bucket.layers == bucket.capacity){
+            bucket.grow(bucket.capacity * 2);
+            dirty = true;
+        }
+
+        int layer = bucket.layers++;
+        glCopyImageSubData(texture.getTextureId(), GL_TEXTURE_2D, 0, 0, 0, 0,
+            bucket.textureID, GL_TEXTURE_2D_ARRAY, 0, 0, 0, layer, bucket.width, bucket.height, 1);
+
+        return bucketIdx << 16 | layer;
+    }
+
+    // Only binds when the set of arrays changed since the last call
+    public void bind(){
+        if(!dirty){
+            return;
+        }
+        for (int i = 0; i < buckets.size(); i++) {
+            glActiveTexture(GL_TEXTURE0 + TEXTURE_UNIT_BASE + i);
+            glBindTexture(GL_TEXTURE_2D_ARRAY, buckets.get(i).textureID);
+        }
+        glActiveTexture(GL_TEXTURE0);
+        dirty = false;
+    }
+
+    public int getBucketCount(){
+        return buckets.size();
+    }
+
+    private static class Bucket {
+        final int width;
+        final int height;
+        int textureID;
+        int layers;
+        int capacity;
+
+        Bucket(int width, int height){
+            this.width = width;
+            this.height = height;
+            layers = 0;
+            capacity = INITIAL_LAYERS;
+            textureID = createArray(width, height, capacity);
+        }
+
+        // Layers are copied on the GPU into a bigger array
+        void grow(int newCapacity){
+            int newTextureID = createArray(width, height, newCapacity);
+            glCopyImageSubData(textureID, GL_TEXTURE_2D_ARRAY, 0, 0, 0, 0,
+                newTextureID, GL_TEXTURE_2D_ARRAY, 0, 0, 0, 0, width, height, layers);
+            glDeleteTextures(textureID);
+            textureID = newTextureID;
+            capacity = newCapacity;
+        }
+
+        private static int createArray(int width, int height, int layers){
+            int id = glGenTextures();
+            glBindTexture(GL_TEXTURE_2D_ARRAY, id);
+            glTexStorage3D(GL_TEXTURE_2D_ARRAY, 1, GL_RGBA8, width, height, layers);
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+            glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+            return id;
+        }
+    }
+
+}
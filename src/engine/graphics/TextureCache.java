@@ -6,29 +6,53 @@ public class TextureCache {
     
     public static final String DEFAULT_TEXTURE = "resources\\textures\\default\\Unknown.png";
 
+    // Textures kept on their own besides their array layer, only for passes that do not read the arrays
     private Map<String, Texture> textureMap;
+    private Map<String, Integer> textureIdxMap;
+    private TextureArrays textureArrays;
 
     public TextureCache(){
         textureMap = new HashMap<>();
-        textureMap.put(DEFAULT_TEXTURE, new Texture(DEFAULT_TEXTURE));
+        textureIdxMap = new HashMap<>();
+        textureArrays = new TextureArrays();
+        createTexture(DEFAULT_TEXTURE);
     }
 
     public void cleanup(){
         textureMap.values().stream().forEach(Texture::cleanup);
+        textureArrays.cleanup();
     }
 
-    public Texture createTexture(String texturePath){
+    // The loaded texture is only kept as its array layer
+    public int createTexture(String texturePath){
+        return textureIdxMap.computeIfAbsent(texturePath, path -> {
+            Texture texture = new Texture(path);
+            int idx = textureArrays.add(texture);
+            texture.cleanup();
+            return idx;
+        });
+    }
+
+    public Texture createStandaloneTexture(String texturePath){
         return textureMap.computeIfAbsent(texturePath, Texture::new);
     }
 
-    public Texture getTexture(String texturePath){
-        Texture texture = null;
-        if(texturePath != null){
-            texture = textureMap.get(texturePath);
-        }else{
-            texture = textureMap.get(DEFAULT_TEXTURE);
+    // Index of the texture in the texture arrays, the default texture when the path is null or unknown
+    public int getTextureIdx(String texturePath){
+        Integer idx = texturePath != null ? textureIdxMap.get(texturePath) : null;
+        if(idx == null || idx == TextureArrays.NO_TEXTURE){
+            idx = textureIdxMap.get(DEFAULT_TEXTURE);
         }
-        return texture;
+        return idx;
+    }
+
+    public TextureArrays getTextureArrays(){
+        return textureArrays;
+    }
+
+    // Null unless createStandaloneTexture() was called for the path
+    public Texture getTexture(String texturePath){
+        return texturePath != null ? textureMap.get(texturePath) : null;
     }
 
     public Collection<Texture> getAll() {
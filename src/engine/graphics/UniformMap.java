@@ -8,6 +8,7 @@ import org.lwjgl.system.MemoryStack;
 
 import java.nio.FloatBuffer;
 import java.util.*;
+import java.util.function.IntFunction;
 
 import static org.lwjgl.opengl.GL20.*;
 
@@ -25,13 +26,41 @@ public class UniformMap {
 
     public void createUniform(String uniformName){
 
+        uniforms.put(uniformName, findUniformLocation(uniformName));
+
+    }
+
+    /*
+     * Typed handles hold the location resolved at creation time, so setting them every frame costs neither
+     * a String nor a map lookup. Usage: IntUniform meshMode = uniformMap.createUniform("meshMode", IntUniform::new)
+     */
+    public <T extends Uniform> T createUniform(String uniformName, IntFunction<T> handle){
+
+        int uniformLocation = findUniformLocation(uniformName);
+        uniforms.put(uniformName, uniformLocation);
+        return handle.apply(uniformLocation);
+
+    }
+
+    // Resolves prefix[i] + member for every element, e.g. ("pointLights", ".position", 5)
+    public <T extends Uniform> UniformArray<T> createUniformArray(String prefix, String member, int size, IntFunction<T> handle){
+
+        List<T> elements = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            elements.add(createUniform(prefix + "[" + i + "]" + member, handle));
+        }
+        return new UniformArray<>(elements);
+
+    }
+
+    private int findUniformLocation(String uniformName){
+
         int uniformLocation = glGetUniformLocation(programID, uniformName);
         if(uniformLocation < 0){
             throw new RuntimeException("Could not find uniform [" + 
             uniformName + "] in shader program [" + programID +"]");
         }
-
-        uniforms.put(uniformName, uniformLocation);
+        return uniformLocation;
 
     }
 
@@ -45,9 +74,7 @@ public class UniformMap {
 
     
     public void setUniform(String uniformName, Matrix4f value){
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            glUniformMatrix4fv(getUniformLocation(uniformName), false, value.get(stack.mallocFloat(16)));
-        }
+        setMatrix(getUniformLocation(uniformName), value);
     }
     
     public void setUniform(String uniformName, Matrix4f[] matrices) {
@@ -57,7 +84,7 @@ public class UniformMap {
             for (int i = 0; i < length; i++) {
                 matrices[i].get(16 * i, fb);
             }
-            glUniformMatrix4fv(uniforms.get(uniformName), false, fb);
+            glUniformMatrix4fv(getUniformLocation(uniformName), false, fb);
         }
     }
     
@@ -80,5 +107,92 @@ public class UniformMap {
     public void setUniform(String uniformName, Vector3f value) {
         glUniform3f(getUniformLocation(uniformName), value.x, value.y, value.z);
     }
+
+    public void setUniform(Mat4Uniform uniform, Matrix4f value) {
+        setMatrix(uniform.location, value);
+    }
+
+    public void setUniform(IntUniform uniform, int value) {
+        glUniform1i(uniform.location, value);
+    }
+
+    public void setUniform(FloatUniform uniform, float value) {
+        glUniform1f(uniform.location, value);
+    }
+
+    public void setUniform(Vec2Uniform uniform, Vector2f value) {
+        glUniform2f(uniform.location, value.x, value.y);
+    }
+
+    public void setUniform(Vec3Uniform uniform, Vector3f value) {
+        glUniform3f(uniform.location, value.x, value.y, value.z);
+    }
+
+    public void setUniform(Vec3Uniform uniform, float x, float y, float z) {
+        glUniform3f(uniform.location, x, y, z);
+    }
+
+    public void setUniform(Vec4Uniform uniform, Vector4f value) {
+        glUniform4f(uniform.location, value.x, value.y, value.z, value.w);
+    }
+
+    // Stack memory is thread local and reused, so this does not allocate on the heap
+    private static void setMatrix(int location, Matrix4f value){
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            glUniformMatrix4fv(location, false, value.get(stack.mallocFloat(16)));
+        }
+    }
+
+    public static abstract class Uniform {
+        final int location;
+
+        Uniform(int location){
+            this.location = location;
+        }
+
+        public int getLocation(){
+            return location;
+        }
+    }
+
+    public static final class IntUniform extends Uniform {
+        public IntUniform(int location){ super(location); }
+    }
+
+    public static final class FloatUniform extends Uniform {
+        public FloatUniform(int location){ super(location); }
+    }
+
+    public static final class Vec2Uniform extends Uniform {
+        public Vec2Uniform(int location){ super(location); }
+    }
+
+    public static final class Vec3Uniform extends Uniform {
+        public Vec3Uniform(int location){ super(location); }
+    }
+
+    public static final class Vec4Uniform extends Uniform {
+        public Vec4Uniform(int location){ super(location); }
+    }
+
+    public static final class Mat4Uniform extends Uniform {
+        public Mat4Uniform(int location){ super(location); }
+    }
+
+    public static final class UniformArray<T extends Uniform> {
+        private final List<T> elements;
+
+        UniformArray(List<T> elements){
+            this.elements = elements;
+        }
+
+        public T get(int idx){
+            return elements.get(idx);
+        }
+
+        public int size(){
+            return elements.size();
+        }
+    }
     
 }
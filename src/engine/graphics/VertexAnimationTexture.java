@@ -0,0 +1,166 @@
+package src.engine.graphics;
+
+import org.lwjgl.system.MemoryUtil;
+import org.tinylog.Logger;
+
+import src.engine.scene.AnimationData;
+import src.engine.scene.Skeleton;
+
+import java.nio.FloatBuffer;
+import java.util.*;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/*
+ * Skinned vertices of crowd models baked for every frame of every clip, read by the vertex shaders through a
+ * buffer texture. Each vertex of a frame takes four RGBA32F texels: position, normal, tangent and bitangent.
+ * A clip is laid out per mesh, frame after frame, so a vertex is found at
+ * meshOffset + (frame * numVertices + vertex) * TEXELS_PER_VERTEX. Frames are sampled evenly over the clip
+ * at about FRAMES_PER_SECOND and the shaders interpolate between two of them, looping back to the first.
+ */
+public class VertexAnimationTexture {
+
+    public static final int TEXELS_PER_VERTEX = 4;
+    // Above the texture arrays of the scene pass
+    public static final int TEXTURE_UNIT = TextureArrays.TEXTURE_UNIT_BASE + TextureArrays.MAX_BUCKETS;
+    public static final float FRAMES_PER_SECOND = 30;
+    private static final int TEXEL_SIZE = 4 * 4;
+
+    private final GeometryArena arena;
+    private final int textureID;
+    private final int maxTexels;
+    // Models clear their mesh data once loaded, the crowd ones keep theirs here so clips added later can be baked
+    private final Map<Model, List<MeshData>> meshData;
+
+    public VertexAnimationTexture(){
+        arena = new GeometryArena(TEXEL_SIZE);
+        textureID = glGenTextures();
+        maxTexels = glGetInteger(GL_MAX_TEXTURE_BUFFER_SIZE);
+        meshData = new IdentityHashMap<>();
+        attachBuffer();
+    }
+
+    public void cleanup(){
+        arena.cleanup();
+        glDeleteTextures(textureID);
+    }
+
+    public void bind(){
+        glActiveTexture(GL_TEXTURE0 + TEXTURE_UNIT);
+        glBindTexture(GL_TEXTURE_BUFFER, textureID);
+        glActiveTexture(GL_TEXTURE0);
+    }
+
+    // The arena changes buffer when it grows, so the texture is pointed at the current one
+    private void attachBuffer(){
+        glBindTexture(GL_TEXTURE_BUFFER, textureID);
+        glTexBuffer(GL_TEXTURE_BUFFER, GL_RGBA32F, arena.getBufferID());
+        glBindTexture(GL_TEXTURE_BUFFER, 0);
+    }
+
+    // Has to run while the model still has its mesh data, the clips are kept in the model
+    public void bake(Model model){
+        meshData.put(model, new ArrayList<>(model.getMeshDataList()));
+        bakeNewClips(model);
+    }
+
+    // Bakes the clips of a model passed to bake() that are not baked yet
+    public void bakeNewClips(Model model){
+        List<MeshData> meshDataList = meshData.get(model);
+        if(meshDataList == null || model.getBakedClipCount() == model.getAnimationList().size()){
+            return;
+        }
+        for (Model.Animation animation : model.getAnimationList()) {
+            if(model.getBakedClip(animation) != null) continue;
+            AnimationData animationData = new AnimationData(animation);
+            double length = animation.duration() / animationData.getTicksPerSecond();
+            int numFrames = Math.max(1, (int) Math.ceil(length * FRAMES_PER_SECOND));
+            float framesPerSecond = length > 0 ? (float) (numFrames / length) : FRAMES_PER_SECOND;
+
+            int[] meshOffsets = new int[meshDataList.size()];
+            int[] meshVertices = new int[meshDataList.size()];
+            FloatBuffer[] meshBuffers = new FloatBuffer[meshDataList.size()];
+            for (int i = 0; i < meshDataList.size(); i++) {
+                int numVertices = meshDataList.get(i).getPositions().length / 3;
+                meshVertices[i] = numVertices;
+                meshOffsets[i] = arena.allocate(numFrames * numVertices * TEXELS_PER_VERTEX);
+                meshBuffers[i] = MemoryUtil.memAllocFloat(numFrames * numVertices * TEXELS_PER_VERTEX * 4);
+            }
+
+            for (int frame = 0; frame < numFrames; frame++) {
+                float[] bonesData = animationData.samplePose();
+                for (int i = 0; i < meshDataList.size(); i++) {
+                    skinMesh(meshDataList.get(i), bonesData, meshBuffers[i]);
+                }
+                animationData.advance((float) (length / numFrames));
+            }
+
+            for (int i = 0; i < meshDataList.size(); i++) {
+                meshBuffers[i].flip();
+                arena.upload(meshOffsets[i], meshBuffers[i]);
+                MemoryUtil.memFree(meshBuffers[i]);
+            }
+            model.putBakedClip(animation, new BakedClip(meshOffsets, meshVertices, numFrames, framesPerSecond));
+        }
+        attachBuffer();
+
+        if(arena.getUsed() > maxTexels){
+            Logger.warn("Baked crowd animations take " + arena.getUsed() + " texels, only " + maxTexels + " can be read");
+        }
+    }
+
+    // Same blend as anim.comp, vertices without weights keep their binding pose
+    private static void skinMesh(MeshData meshData, float[] bonesData, FloatBuffer dest){
+        float[] positions = meshData.getPositions();
+        float[] normals = meshData.getNormals();
+        float[] tangents = meshData.getTangents();
+        float[] bitangents = meshData.getBitangents();
+        float[] weights = meshData.getWeights();
+        int[] boneIndices = meshData.getBoneIndices();
+        float[] matrix = new float[Skeleton.BONE_SIZE_FLOATS];
+
+        int numVertices = positions.length / 3;
+        for (int v = 0; v < numVertices; v++) {
+            Arrays.fill(matrix, 0);
+            float weightSum = 0;
+            for (int j = 0; j < 4; j++) {
+                float weight = weights[v * 4 + j];
+                if(weight == 0) continue;
+                int bonePos = boneIndices[v * 4 + j] * Skeleton.BONE_SIZE_FLOATS;
+                for (int k = 0; k < Skeleton.BONE_SIZE_FLOATS; k++) {
+                    matrix[k] += weight * bonesData[bonePos + k];
+                }
+                weightSum += weight;
+            }
+            if(weightSum == 0){
+                matrix[0] = matrix[5] = matrix[10] = 1;
+                weightSum = 1;
+            }
+
+            int pos = v * 3;
+            putTransformed(dest, matrix, positions, pos, 1 / weightSum, true);
+            putTransformed(dest, matrix, normals, pos, 1, false);
+            putTransformed(dest, matrix, tangents, pos, 1, false);
+            putTransformed(dest, matrix, bitangents, pos, 1, false);
+        }
+    }
+
+    private static void putTransformed(FloatBuffer dest, float[] m, float[] values, int pos, float scale, boolean point){
+        float x = values[pos];
+        float y = values[pos + 1];
+        float z = values[pos + 2];
+        float w = point ? 1 : 0;
+        dest.put((m[0] * x + m[1] * y + m[2] * z + m[3] * w) * scale);
+        dest.put((m[4] * x + m[5] * y + m[6] * z + m[7] * w) * scale);
+        dest.put((m[8] * x + m[9] * y + m[10] * z + m[11] * w) * scale);
+        dest.put(w);
+    }
+
+    public int getUsedTexels(){
+        return arena.getUsed();
+    }
+
+    // Texel offset of the first frame and vertex count of each mesh of the model
+    public record BakedClip(int[] meshOffsets, int[] meshVertices, int numFrames, float framesPerSecond) {}
+
+}
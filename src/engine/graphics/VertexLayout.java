@@ -0,0 +1,241 @@
+package src.engine.graphics;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/*
+ * Format of the interleaved vertices in RenderBuffers: position, normal, tangent and texture coordinates, in
+ * that order and in whole 32 bit words. Normals and tangents are unit vectors packed in one word each, either
+ * as 10_10_10_2 snorm, decoded by the vertex fetch, or octahedral snorm 16, decoded in the shaders. The
+ * bitangent is not stored, it is rebuilt as cross(normal, tangent) times a sign kept with the tangent: the
+ * 2 bit w of the 10_10_10_2 word or the lowest bit of the octahedral y. Positions and texture coordinates
+ * are floats or half floats. Shaders reading vertices are compiled with getShaderDefines(). Depth only passes
+ * read a separate stream holding just the positions, in the same format.
+ */
+public class VertexLayout {
+
+    public enum PositionFormat { FLOAT, HALF }
+    public enum DirectionFormat { PACKED_10_10_10_2, OCTAHEDRAL }
+    public enum TexCoordFormat { FLOAT, HALF }
+
+    public static final int POSITION_LOCATION = 0;
+    public static final int NORMAL_LOCATION = 1;
+    public static final int TANGENT_LOCATION = 2;
+    public static final int TEXCOORD_LOCATION = 3;
+
+    // 24 bytes, against 56 for the five float vectors
+    public static final VertexLayout DEFAULT = new VertexLayout(PositionFormat.FLOAT, DirectionFormat.PACKED_10_10_10_2, TexCoordFormat.HALF);
+    // 16 bytes, half float positions only suit meshes within a few hundred units of their origin
+    public static final VertexLayout SMALLEST = new VertexLayout(PositionFormat.HALF, DirectionFormat.OCTAHEDRAL, TexCoordFormat.HALF);
+
+    private final PositionFormat positionFormat;
+    private final DirectionFormat directionFormat;
+    private final TexCoordFormat texCoordFormat;
+    private final int positionWords;
+    private final int texCoordWords;
+
+    public VertexLayout(PositionFormat positionFormat, DirectionFormat directionFormat, TexCoordFormat texCoordFormat){
+        this.positionFormat = positionFormat;
+        this.directionFormat = directionFormat;
+        this.texCoordFormat = texCoordFormat;
+        // Three half floats are padded to two words
+        positionWords = positionFormat == PositionFormat.FLOAT ? 3 : 2;
+        texCoordWords = texCoordFormat == TexCoordFormat.FLOAT ? 2 : 1;
+    }
+
+    public int getStrideWords(){
+        return positionWords + 2 + texCoordWords;
+    }
+
+    public int getStride(){
+        return getStrideWords() * 4;
+    }
+
+    public int getPositionWords(){
+        return positionWords;
+    }
+
+    // Of the position only stream
+    public int getPositionStride(){
+        return positionWords * 4;
+    }
+
+    private int getNormalOffset(){
+        return positionWords * 4;
+    }
+
+    private int getTangentOffset(){
+        return getNormalOffset() + 4;
+    }
+
+    private int getTexCoordOffset(){
+        return getTangentOffset() + 4;
+    }
+
+    // Expects the VAO and its vertex buffer to be bound
+    public void defineVertexAttribs(){
+        int stride = getStride();
+
+        glEnableVertexAttribArray(POSITION_LOCATION);
+        glVertexAttribPointer(POSITION_LOCATION, 3, positionFormat == PositionFormat.FLOAT ? GL_FLOAT : GL_HALF_FLOAT, false, stride, 0);
+
+        glEnableVertexAttribArray(NORMAL_LOCATION);
+        glEnableVertexAttribArray(TANGENT_LOCATION);
+        if(directionFormat == DirectionFormat.PACKED_10_10_10_2){
+            glVertexAttribPointer(NORMAL_LOCATION, 4, GL_INT_2_10_10_10_REV, true, stride, getNormalOffset());
+            glVertexAttribPointer(TANGENT_LOCATION, 4, GL_INT_2_10_10_10_REV, true, stride, getTangentOffset());
+        }else{
+            glVertexAttribPointer(NORMAL_LOCATION, 2, GL_SHORT, true, stride, getNormalOffset());
+            // Read as integers so the sign bit survives
+            glVertexAttribIPointer(TANGENT_LOCATION, 2, GL_SHORT, stride, getTangentOffset());
+        }
+
+        glEnableVertexAttribArray(TEXCOORD_LOCATION);
+        glVertexAttribPointer(TEXCOORD_LOCATION, 2, texCoordFormat == TexCoordFormat.FLOAT ? GL_FLOAT : GL_HALF_FLOAT, false, stride, getTexCoordOffset());
+    }
+
+    // Expects the depth VAO and its position buffer to be bound
+    public void defineDepthVertexAttribs(){
+        glEnableVertexAttribArray(POSITION_LOCATION);
+        glVertexAttribPointer(POSITION_LOCATION, 3, positionFormat == PositionFormat.FLOAT ? GL_FLOAT : GL_HALF_FLOAT, false, getPositionStride(), 0);
+    }
+
+    // Inserted after the #version line of the shaders that read vertices
+    public String getShaderDefines(){
+        StringBuilder defines = new StringBuilder();
+        defines.append("#define VERTEX_WORDS ").append(getStrideWords()).append('\n');
+        defines.append("#define POSITION_WORDS ").append(positionWords).append('\n');
+        defines.append("#define TEXCOORD_WORDS ").append(texCoordWords).append('\n');
+        if(positionFormat == PositionFormat.HALF){
+            defines.append("#define POSITION_HALF\n");
+        }
+        if(directionFormat == DirectionFormat.OCTAHEDRAL){
+            defines.append("#define DIRECTION_OCTAHEDRAL\n");
+        }
+        return defines.toString();
+    }
+
+    public void putPositions(ByteBuffer dest, MeshData meshData){
+        float[] positions = meshData.getPositions();
+        for (int pos = 0; pos < positions.length; pos += 3) {
+            putPosition(dest, positions, pos);
+        }
+    }
+
+    private void putPosition(ByteBuffer dest, float[] positions, int pos){
+        if(positionFormat == PositionFormat.FLOAT){
+            dest.putFloat(positions[pos]);
+            dest.putFloat(positions[pos + 1]);
+            dest.putFloat(positions[pos + 2]);
+        }else{
+            dest.putShort(toHalf(positions[pos]));
+            dest.putShort(toHalf(positions[pos + 1]));
+            dest.putShort(toHalf(positions[pos + 2]));
+            dest.putShort((short) 0);
+        }
+    }
+
+    public void putVertices(ByteBuffer dest, MeshData meshData){
+        float[] positions = meshData.getPositions();
+        float[] normals = meshData.getNormals();
+        float[] tangents = meshData.getTangents();
+        float[] bitangents = meshData.getBitangents();
+        float[] textCoords = meshData.getTextCoords();
+
+        int rows = positions.length / 3;
+        for (int row = 0; row < rows; row++) {
+            int pos = row * 3;
+            putPosition(dest, positions, pos);
+
+            // The bitangent only keeps which side of the normal and tangent plane it is on
+            float nx = normals[pos], ny = normals[pos + 1], nz = normals[pos + 2];
+            float tx = tangents[pos], ty = tangents[pos + 1], tz = tangents[pos + 2];
+            float handedness = (ny * tz - nz * ty) * bitangents[pos] + (nz * tx - nx * tz) * bitangents[pos + 1]
+                + (nx * ty - ny * tx) * bitangents[pos + 2];
+            dest.putInt(packDirection(nx, ny, nz, 1));
+            dest.putInt(packDirection(tx, ty, tz, handedness < 0 ? -1 : 1));
+
+            int textCoordPos = row * 2;
+            if(texCoordFormat == TexCoordFormat.FLOAT){
+                dest.putFloat(textCoords[textCoordPos]);
+                dest.putFloat(textCoords[textCoordPos + 1]);
+            }else{
+                dest.putShort(toHalf(textCoords[textCoordPos]));
+                dest.putShort(toHalf(textCoords[textCoordPos + 1]));
+            }
+        }
+    }
+
+    private int packDirection(float x, float y, float z, int sign){
+        if(directionFormat == DirectionFormat.PACKED_10_10_10_2){
+            return (snorm(x, 511) & 0x3ff) | (snorm(y, 511) & 0x3ff) << 10 | (snorm(z, 511) & 0x3ff) << 20 | (sign & 0x3) << 30;
+        }
+
+        // Projected on the octahedron, the lower half folded over the upper one
+        float length = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        float ex = 0, ey = 0;
+        if(length > 0){
+            ex = x / length;
+            ey = y / length;
+            if(z < 0){
+                float fx = (1 - Math.abs(ey)) * (ex >= 0 ? 1 : -1);
+                ey = (1 - Math.abs(ex)) * (ey >= 0 ? 1 : -1);
+                ex = fx;
+            }
+        }
+        int qx = snorm(ex, 32767);
+        int qy = (snorm(ey, 32767) & ~1) | (sign < 0 ? 1 : 0);
+        return (qx & 0xffff) | (qy & 0xffff) << 16;
+    }
+
+    private static int snorm(float value, int max){
+        return Math.round(Math.max(-1, Math.min(1, value)) * max);
+    }
+
+    // Rounds to nearest, values out of range become infinities
+    static short toHalf(float value){
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+        if(exponent == 0xff){
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        int halfExponent = exponent - 127 + 15;
+        if(halfExponent >= 0x1f){
+            return (short) (sign | 0x7c00);
+        }
+        if(halfExponent <= 0){
+            if(halfExponent < -10){
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            int shift = 14 - halfExponent;
+            int half = mantissa >> shift;
+            if(((mantissa >> (shift - 1)) & 1) != 0){
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = sign | halfExponent << 10 | mantissa >> 13;
+        // A carry out of the mantissa moves to the next exponent, which is the correctly rounded value
+        if((mantissa & 0x1000) != 0){
+            half++;
+        }
+        return (short) half;
+    }
+
+    public PositionFormat getPositionFormat(){
+        return positionFormat;
+    }
+
+    public DirectionFormat getDirectionFormat(){
+        return directionFormat;
+    }
+
+    public TexCoordFormat getTexCoordFormat(){
+        return texCoordFormat;
+    }
+
+}
@@ -0,0 +1,101 @@
+package src.engine.scene;
+
+import org.joml.Matrix4f;
+import org.joml.Quaternionf;
+
+/*
+ * Translation, rotation and scale keys of one animated node, in ticks. Sampling interpolates between the
+ * two keys around the requested tick, linearly for translation and scale and spherically for rotation.
+ */
+public class AnimationChannel {
+
+    private final float[] positionTimes;
+    private final float[] positions;
+    private final float[] rotationTimes;
+    private final float[] rotations;
+    private final float[] scaleTimes;
+    private final float[] scales;
+
+    public AnimationChannel(float[] positionTimes, float[] positions, float[] rotationTimes, float[] rotations,
+                            float[] scaleTimes, float[] scales){
+        this.positionTimes = positionTimes;
+        this.positions = positions;
+        this.rotationTimes = rotationTimes;
+        this.rotations = rotations;
+        this.scaleTimes = scaleTimes;
+        this.scales = scales;
+    }
+
+    // Writes T * R * S at the tick into dest, q0 and q1 are scratch
+    public Matrix4f sample(float tick, Matrix4f dest, Quaternionf q0, Quaternionf q1){
+        float tx = 0, ty = 0, tz = 0;
+        float sx = 1, sy = 1, sz = 1;
+        q0.identity();
+
+        int numPositions = positionTimes.length;
+        if(numPositions > 0){
+            int key = findKey(positionTimes, tick);
+            int next = Math.min(key + 1, numPositions - 1);
+            float alpha = factor(positionTimes, key, next, tick);
+            tx = lerp(positions[key * 3], positions[next * 3], alpha);
+            ty = lerp(positions[key * 3 + 1], positions[next * 3 + 1], alpha);
+            tz = lerp(positions[key * 3 + 2], positions[next * 3 + 2], alpha);
+        }
+
+        int numRotations = rotationTimes.length;
+        if(numRotations > 0){
+            int key = findKey(rotationTimes, tick);
+            int next = Math.min(key + 1, numRotations - 1);
+            float alpha = factor(rotationTimes, key, next, tick);
+            q0.set(rotations[key * 4], rotations[key * 4 + 1], rotations[key * 4 + 2], rotations[key * 4 + 3]);
+            if(alpha > 0){
+                q1.set(rotations[next * 4], rotations[next * 4 + 1], rotations[next * 4 + 2], rotations[next * 4 + 3]);
+                q0.slerp(q1, alpha);
+            }
+        }
+
+        int numScales = scaleTimes.length;
+        if(numScales > 0){
+            int key = findKey(scaleTimes, tick);
+            int next = Math.min(key + 1, numScales - 1);
+            float alpha = factor(scaleTimes, key, next, tick);
+            sx = lerp(scales[key * 3], scales[next * 3], alpha);
+            sy = lerp(scales[key * 3 + 1], scales[next * 3 + 1], alpha);
+            sz = lerp(scales[key * 3 + 2], scales[next * 3 + 2], alpha);
+        }
+
+        return dest.translationRotateScale(tx, ty, tz, q0.x, q0.y, q0.z, q0.w, sx, sy, sz);
+    }
+
+    // Last key at or before the tick, the first one for ticks before it
+    private static int findKey(float[] times, float tick){
+        int low = 0;
+        int high = times.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if(times[mid] <= tick){
+                low = mid;
+            }else{
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static float factor(float[] times, int key, int next, float tick){
+        float span = times[next] - times[key];
+        if(span <= 0){
+            return 0;
+        }
+        return Math.min(1, Math.max(0, (tick - times[key]) / span));
+    }
+
+    private static float lerp(float a, float b, float alpha){
+        return a + (b - a) * alpha;
+    }
+
+    public int getNumKeys(){
+        return Math.max(positionTimes.length, Math.max(rotationTimes.length, scaleTimes.length));
+    }
+
+}
@@ -1,62 +1,165 @@
 package src.engine.scene;
 
-import java.util.ArrayList;
-
 import org.joml.Matrix4f;
+import org.joml.Quaternionf;
+
 import src.engine.graphics.Model;
 
+/*
+ * Playback state of an animated entity. Time advances in seconds scaled by the entity's speed and the pose
+ * is sampled from the keys at that time, so playback does not depend on how often the game updates.
+ * The pose of the last samplePose() call is kept as packed bone matrices for the renderer.
+ */
 public class AnimationData {
 
-    public static final Matrix4f[] DEFAULT_BONES_MATRICES = new Matrix4f[ModelLoader.MAX_BONES];
-
-    static {
-        Matrix4f zeroMatrix = new Matrix4f().zero();
-        for (int i = 0; i < DEFAULT_BONES_MATRICES.length; i++) {
-            DEFAULT_BONES_MATRICES[i] = zeroMatrix;
-        }
-    }
+    private static final double DEFAULT_TICKS_PER_SECOND = 30;
 
     private Model.Animation currentAnimation;
-    private int currentFrameIdx;
+    private double time;
+    private float speed;
+    // Bumped whenever the pose samplePose() would give may have changed
+    private int poseVersion;
+    // Bumped when the clip, the speed or the time change other than by advance()
+    private int playbackVersion;
+
+    private float[] bonesData;
+    // Scratch for samplePose(), each entity has its own so poses can be sampled in parallel
+    private Matrix4f[] nodeGlobals;
+    private final Matrix4f localTransform;
+    private final Matrix4f boneTransform;
+    private final Quaternionf q0;
+    private final Quaternionf q1;
 
     public AnimationData(Model.Animation cA) {
-        currentFrameIdx = 0;
-        currentAnimation = new Model.Animation(cA.name(), cA.duration(), new ArrayList<Model.AnimatedFrame>(cA.frames()));
+        currentAnimation = cA;
+        time = 0;
+        speed = 1;
+        localTransform = new Matrix4f();
+        boneTransform = new Matrix4f();
+        q0 = new Quaternionf();
+        q1 = new Quaternionf();
     }
 
+    // Copies start in step with the original, so they can share its skinned pose
     public AnimationData(AnimationData aD){
-        if(aD == null) return;
-        currentFrameIdx = 0;
-        Model.Animation cA = aD.getCurrentAnimation();
-        currentAnimation = new Model.Animation(cA.name(), cA.duration(), new ArrayList<Model.AnimatedFrame>(cA.frames()));
+        this(aD.getCurrentAnimation());
+        speed = aD.getSpeed();
+        time = aD.time;
     }
 
     public void setAnimation(Model.Animation animation){
         currentAnimation = animation;
+        poseVersion++;
+        playbackVersion++;
     }
 
     public Model.Animation getCurrentAnimation() {
         return currentAnimation;
     }
 
-    public Model.AnimatedFrame getCurrentFrame() {
-        return currentAnimation.frames().get(currentFrameIdx);
+    public void advance(float seconds) {
+        addTime(seconds * speed);
     }
 
-    public int getCurrentFrameIdx() {
-        return currentFrameIdx;
+    // Steps one tick of the clip whatever the speed
+    public void nextFrame() {
+        addTime(1 / getTicksPerSecond());
+        playbackVersion++;
     }
 
-    public void nextFrame() {
-        int nextFrame = currentFrameIdx + 1;
-        if (nextFrame > currentAnimation.frames().size() - 1) {
-            currentFrameIdx = 0;
-        } else {
-            currentFrameIdx = nextFrame;
+    private void addTime(double seconds) {
+        if(seconds == 0){
+            return;
+        }
+        time += seconds;
+        poseVersion++;
+        double length = currentAnimation.duration() / getTicksPerSecond();
+        if(length <= 0){
+            time = 0;
+        }else if(time >= length || time < 0){
+            time -= Math.floor(time / length) * length;
         }
     }
 
     public void resetAnimation() {
-        currentFrameIdx = 0;
+        time = 0;
+        poseVersion++;
+        playbackVersion++;
     }
-}
\ No newline at end of file
+
+    public int getPoseVersion() {
+        return poseVersion;
+    }
+
+    public int getPlaybackVersion() {
+        return playbackVersion;
+    }
+
+    public double getTicksPerSecond() {
+        double ticksPerSecond = currentAnimation.ticksPerSecond();
+        return ticksPerSecond > 0 ? ticksPerSecond : DEFAULT_TICKS_PER_SECOND;
+    }
+
+    // Seconds into the current clip
+    public double getTime() {
+        return time;
+    }
+
+    public float getCurrentTick() {
+        return (float) (time * getTicksPerSecond());
+    }
+
+    public int getCurrentFrameIdx() {
+        return (int) getCurrentTick();
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    public void setSpeed(float speed) {
+        this.speed = speed;
+        playbackVersion++;
+    }
+
+    // Fills getBonesData() with the pose at the current time
+    public float[] samplePose() {
+        Skeleton skeleton = currentAnimation.skeleton();
+        AnimationChannel[] channels = currentAnimation.channels();
+        int numNodes = skeleton.getNumNodes();
+        if(bonesData == null || bonesData.length != skeleton.getNumBones() * Skeleton.BONE_SIZE_FLOATS){
+            // Bones no node drives stay at identity
+            bonesData = new float[skeleton.getNumBones() * Skeleton.BONE_SIZE_FLOATS];
+            for (int i = 0; i < bonesData.length; i += Skeleton.BONE_SIZE_FLOATS) {
+                bonesData[i] = 1;
+                bonesData[i + 5] = 1;
+                bonesData[i + 10] = 1;
+            }
+        }
+        if(nodeGlobals == null || nodeGlobals.length < numNodes){
+            nodeGlobals = new Matrix4f[numNodes];
+            for (int i = 0; i < numNodes; i++) {
+                nodeGlobals[i] = new Matrix4f();
+            }
+        }
+
+        float tick = getCurrentTick();
+        for (int node = 0; node < numNodes; node++) {
+            Matrix4f local = channels[node] != null ? channels[node].sample(tick, localTransform, q0, q1) : skeleton.getNodeTransform(node);
+            int parent = skeleton.getParent(node);
+            Matrix4f global = nodeGlobals[node];
+            (parent < 0 ? skeleton.getRootTransform() : nodeGlobals[parent]).mul(local, global);
+
+            for (int boneId : skeleton.getNodeBones(node)) {
+                skeleton.getGlobalInverseTransform().mul(global, boneTransform).mul(skeleton.getOffsetMatrix(boneId));
+                Skeleton.putBoneMatrix(bonesData, boneId, boneTransform);
+            }
+        }
+        return bonesData;
+    }
+
+    public float[] getBonesData() {
+        return bonesData;
+    }
+
+}
@@ -0,0 +1,92 @@
+package src.engine.scene;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Samples the poses of many animated entities in parallel chunks on a fork-join pool. Every AnimationData
+ * owns its scratch and output so chunks share nothing, and tasks are reused between calls.
+ */
+public class AnimationSampler {
+
+    // Below this many poses per chunk forking costs more than it saves
+    private static final int MIN_CHUNK_SIZE = 8;
+
+    private final ForkJoinPool pool;
+    private final int maxChunks;
+    private final SampleTask[] tasks;
+    private final SampleAll sampleAll;
+    private AnimationData[] poses;
+
+    public AnimationSampler(){
+        this(ForkJoinPool.commonPool());
+    }
+
+    public AnimationSampler(ForkJoinPool pool){
+        this.pool = pool;
+        maxChunks = pool.getParallelism() * 4;
+        tasks = new SampleTask[maxChunks];
+        for (int i = 0; i < maxChunks; i++) {
+            tasks[i] = new SampleTask();
+        }
+        sampleAll = new SampleAll();
+    }
+
+    // Calls samplePose() on the first count entries
+    public void sample(AnimationData[] poses, int count){
+        int numChunks = Math.min(maxChunks, (count + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE);
+        if(numChunks <= 1){
+            sampleRange(poses, 0, count);
+            return;
+        }
+
+        this.poses = poses;
+        int chunkSize = (count + numChunks - 1) / numChunks;
+        for (int i = 0; i < numChunks; i++) {
+            SampleTask task = tasks[i];
+            task.reinitialize();
+            task.start = i * chunkSize;
+            task.end = Math.min(count, task.start + chunkSize);
+        }
+        sampleAll.reinitialize();
+        sampleAll.numChunks = numChunks;
+        pool.invoke(sampleAll);
+        this.poses = null;
+    }
+
+    private static void sampleRange(AnimationData[] poses, int start, int end){
+        for (int i = start; i < end; i++) {
+            poses[i].samplePose();
+        }
+    }
+
+    // Only run inside the pool, never serialized
+    @SuppressWarnings("serial")
+    private final class SampleTask extends RecursiveAction {
+        int start;
+        int end;
+
+        @Override
+        protected void compute(){
+            sampleRange(poses, start, end);
+        }
+    }
+
+    // Only run inside the pool, never serialized
+    @SuppressWarnings("serial")
+    private final class SampleAll extends RecursiveAction {
+        int numChunks;
+
+        @Override
+        protected void compute(){
+            for (int i = 1; i < numChunks; i++) {
+                tasks[i].fork();
+            }
+            tasks[0].invoke();
+            for (int i = 1; i < numChunks; i++) {
+                tasks[i].join();
+            }
+        }
+    }
+
+}
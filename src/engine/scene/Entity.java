@@ -20,6 +20,11 @@ public class Entity {
     private float scale;
     private AnimationData animationData;
     private boolean visible;
+    // Bumped whenever the model matrix may have changed, the renderer re-uploads on a new value
+    private int transformVersion;
+    private int handle;
+    // Position in its model's entity list, kept by the scene so removal needs no search
+    private int listIndex;
     
     private List<MeshDrawData> drawData;
 
@@ -33,6 +38,7 @@ public class Entity {
         scale = 1;
         visible = true;
         animationData = null;
+        handle = EntityRegistry.INVALID_HANDLE;
     }
 
     public Entity(Entity other){
@@ -48,6 +54,7 @@ public class Entity {
         else
             this.animationData = new AnimationData(other.getAnimationData());
         visible = true;
+        handle = EntityRegistry.INVALID_HANDLE;
     }
 
     public List<MeshDrawData> getMeshDrawDataList(){
@@ -77,7 +84,7 @@ public class Entity {
     
         drawData.set(0, 
         new MeshDrawData(data.sizeInBytes(), idx, data.offset(), data.vertices(), data.vertexOffset(),
-        data.aabbMin(), data.aabbMax(), data.animMeshDrawData())
+        data.shortIndices(), data.aabbMin(), data.aabbMax(), data.animMeshDrawData())
         );
         
     }
@@ -100,7 +107,7 @@ public class Entity {
             
             drawData.set(0, 
             new MeshDrawData(data.sizeInBytes(), mat.getMaterialIdx(), data.offset(), data.vertices(), data.vertexOffset(),
-               data.aabbMin(), data.aabbMax(), data.animMeshDrawData())
+               data.shortIndices(), data.aabbMin(), data.aabbMax(), data.animMeshDrawData())
                );
                
             }
@@ -114,6 +121,27 @@ public class Entity {
         return ID;
     }
 
+    // Set by the scene's EntityRegistry, INVALID_HANDLE while the entity is not in a scene
+    public int getHandle(){
+        return handle;
+    }
+
+    void setHandle(int h){
+        handle = h;
+    }
+
+    int getListIndex(){
+        return listIndex;
+    }
+
+    void setListIndex(int i){
+        listIndex = i;
+    }
+
+    public int getSlot(){
+        return EntityRegistry.getSlot(handle);
+    }
+
     public String getModelID(){
         return modelID;
     }
@@ -145,20 +173,24 @@ public class Entity {
         position.x = x;
         position.y = y;
         position.z = z;
+        transformVersion++;
     }
 
     public void movePosition(float x, float y, float z){
         position.x = position.x + x;
         position.y = position.x + y;
         position.z = position.x + z;
+        transformVersion++;
     }
 
     public void setRotation(float x, float y, float z, float angle){
         rotation.fromAxisAngleRad(x, y, z, angle);
+        transformVersion++;
     }
 
     public void setScale(float s){
         scale = s;
+        transformVersion++;
     }
 
     public void setAnimationData(AnimationData aD) {
@@ -184,6 +216,16 @@ public class Entity {
 
     public void updateModelMatrix(){
         modelMatrix.translationRotateScale(position, rotation, scale);
+        transformVersion++;
+    }
+
+    // For code that edits getModelMatrix() in place
+    public void markTransformChanged(){
+        transformVersion++;
+    }
+
+    public int getTransformVersion(){
+        return transformVersion;
     }
 
     private boolean checkMatList(List<Material> matList, Material mat){
@@ -0,0 +1,123 @@
+package src.engine.scene;
+
+/*
+ * Dense store of the scene's entities addressed by int handles. The low bits of a handle are the entity's
+ * slot, which stays the same for its whole life and is used as its index in GPU buffers, the high bits are
+ * the generation of the slot so a handle to a removed entity is never mistaken for the one reusing its slot.
+ * Freed slots are reused before the store grows, which keeps the slots dense.
+ */
+public class EntityRegistry {
+
+    public static final int INVALID_HANDLE = -1;
+
+    private static final int SLOT_BITS = 20;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (31 - SLOT_BITS)) - 1;
+
+    private Entity[] entities;
+    private int[] generations;
+    private int[] freeSlots;
+    private int numFreeSlots;
+    private int slotCount;
+    private int size;
+    // Bumped on every add and remove so users of the slots know when to look again
+    private int version;
+
+    public EntityRegistry(){
+        entities = new Entity[64];
+        generations = new int[64];
+        freeSlots = new int[64];
+        numFreeSlots = 0;
+        slotCount = 0;
+        size = 0;
+        version = 0;
+    }
+
+    public int add(Entity entity){
+        if(entity.getHandle() != INVALID_HANDLE){
+            throw new RuntimeException("Entity [" + entity.getID() + "] is already registered");
+        }
+
+        int slot;
+        if(numFreeSlots > 0){
+            slot = freeSlots[--numFreeSlots];
+        }else{
+            if(slotCount == SLOT_MASK + 1){
+                throw new RuntimeException("Too many entities, the maximum is " + (SLOT_MASK + 1));
+            }
+            if(slotCount == entities.length){
+                grow(entities.length * 2);
+            }
+            slot = slotCount++;
+        }
+
+        int handle = generations[slot] << SLOT_BITS | slot;
+        entities[slot] = entity;
+        entity.setHandle(handle);
+        size++;
+        version++;
+        return handle;
+    }
+
+    public boolean remove(int handle){
+        if(!isValid(handle)){
+            return false;
+        }
+        int slot = getSlot(handle);
+        entities[slot].setHandle(INVALID_HANDLE);
+        entities[slot] = null;
+        generations[slot] = (generations[slot] + 1) & GENERATION_MASK;
+        freeSlots[numFreeSlots++] = slot;
+        size--;
+        version++;
+        return true;
+    }
+
+    // Null when the handle is stale or was never given out
+    public Entity get(int handle){
+        return isValid(handle) ? entities[getSlot(handle)] : null;
+    }
+
+    public boolean isValid(int handle){
+        if(handle < 0){
+            return false;
+        }
+        int slot = getSlot(handle);
+        return slot < slotCount && entities[slot] != null && generations[slot] == handle >>> SLOT_BITS;
+    }
+
+    // Entity in a slot, null for free slots
+    public Entity getBySlot(int slot){
+        return entities[slot];
+    }
+
+    public static int getSlot(int handle){
+        return handle & SLOT_MASK;
+    }
+
+    // Every slot below this has been used, free ones included
+    public int getSlotCount(){
+        return slotCount;
+    }
+
+    public int getSize(){
+        return size;
+    }
+
+    public int getVersion(){
+        return version;
+    }
+
+    private void grow(int capacity){
+        Entity[] newEntities = new Entity[capacity];
+        System.arraycopy(entities, 0, newEntities, 0, entities.length);
+        entities = newEntities;
+        int[] newGenerations = new int[capacity];
+        System.arraycopy(generations, 0, newGenerations, 0, generations.length);
+        generations = newGenerations;
+        int[] newFreeSlots = new int[capacity];
+        System.arraycopy(freeSlots, 0, newFreeSlots, 0, numFreeSlots);
+        freeSlots = newFreeSlots;
+    }
+
+}
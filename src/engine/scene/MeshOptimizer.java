@@ -0,0 +1,250 @@
+package src.engine.scene;
+
+import java.util.*;
+
+/*
+ * Import time reordering of indexed triangle lists, in plain Java so it runs on the loaded arrays before any
+ * of them reach GL. Triangles are ordered for the post transform vertex cache with Tipsify (Sander, Nehab
+ * and Barczak 2007), which also gives the clusters between which the cache starts cold. Those clusters can
+ * then be sorted so the ones facing away from the mesh centre come first and hide the inner ones, costing
+ * no extra cache misses. Vertices are last renumbered in the order triangles first use them, so fetching
+ * walks the vertex buffer forwards. Cache statistics simulate a FIFO of CACHE_SIZE entries.
+ */
+public class MeshOptimizer {
+
+    public static final int CACHE_SIZE = 16;
+
+    private MeshOptimizer(){}
+
+    // Average cache miss ratio per triangle and per referenced vertex, 0.5 and 1 being the best reachable for large meshes
+    public record CacheStats(float acmr, float atvr) {}
+
+    // clusterStarts holds the first triangle of each cluster, in increasing order
+    public record CacheOrder(int[] indices, int[] clusterStarts) {}
+
+    public static CacheStats analyzeVertexCache(int[] indices, int numVertices){
+        int numTriangles = indices.length / 3;
+        if(numTriangles == 0){
+            return new CacheStats(0, 0);
+        }
+        // A vertex is cached while fewer than CACHE_SIZE misses happened since its own
+        int[] cacheTime = new int[numVertices];
+        boolean[] referenced = new boolean[numVertices];
+        int time = CACHE_SIZE;
+        int misses = 0;
+        int numReferenced = 0;
+        for (int index : indices) {
+            if(time - cacheTime[index] >= CACHE_SIZE){
+                misses++;
+                time++;
+                cacheTime[index] = time;
+            }
+            if(!referenced[index]){
+                referenced[index] = true;
+                numReferenced++;
+            }
+        }
+        return new CacheStats((float) misses / numTriangles, (float) misses / numReferenced);
+    }
+
+    public static CacheOrder optimizeVertexCache(int[] indices, int numVertices){
+        int numTriangles = indices.length / 3;
+
+        // Triangles of every vertex, as ranges of one array
+        int[] adjacencyStart = new int[numVertices + 1];
+        for (int index : indices) {
+            adjacencyStart[index + 1]++;
+        }
+        for (int v = 0; v < numVertices; v++) {
+            adjacencyStart[v + 1] += adjacencyStart[v];
+        }
+        int[] adjacency = new int[indices.length];
+        int[] fill = Arrays.copyOf(adjacencyStart, numVertices);
+        for (int i = 0; i < indices.length; i++) {
+            adjacency[fill[indices[i]]++] = i / 3;
+        }
+
+        int[] liveTriangles = new int[numVertices];
+        for (int v = 0; v < numVertices; v++) {
+            liveTriangles[v] = adjacencyStart[v + 1] - adjacencyStart[v];
+        }
+        int[] cacheTime = new int[numVertices];
+        boolean[] emitted = new boolean[numTriangles];
+        int[] deadEnd = new int[indices.length];
+        int deadEndSize = 0;
+        int[] candidates = new int[indices.length];
+        int[] output = new int[indices.length];
+        int outputSize = 0;
+        int[] clusterStarts = new int[Math.max(1, numTriangles)];
+        int numClusters = 0;
+
+        int time = CACHE_SIZE + 1;
+        int cursor = 0;
+        int fanning = -1;
+        while (fanning < 0 && cursor < numVertices) {
+            if(liveTriangles[cursor] > 0) fanning = cursor;
+            cursor++;
+        }
+        boolean coldStart = true;
+
+        while (fanning >= 0) {
+            if(coldStart){
+                clusterStarts[numClusters++] = outputSize / 3;
+            }
+
+            // Emit every remaining triangle around the fanning vertex
+            int numCandidates = 0;
+            for (int a = adjacencyStart[fanning]; a < adjacencyStart[fanning + 1]; a++) {
+                int triangle = adjacency[a];
+                if(emitted[triangle]) continue;
+                for (int c = 0; c < 3; c++) {
+                    int v = indices[triangle * 3 + c];
+                    deadEnd[deadEndSize++] = v;
+                    candidates[numCandidates++] = v;
+                    liveTriangles[v]--;
+                    if(time - cacheTime[v] > CACHE_SIZE){
+                        cacheTime[v] = time;
+                        time++;
+                    }
+                    output[outputSize++] = v;
+                }
+                emitted[triangle] = true;
+            }
+
+            // The next fan is the oldest candidate that will still be cached once its triangles are emitted
+            int next = -1;
+            int bestPriority = -1;
+            for (int c = 0; c < numCandidates; c++) {
+                int v = candidates[c];
+                if(liveTriangles[v] <= 0) continue;
+                int priority = 0;
+                if(time - cacheTime[v] + 2 * liveTriangles[v] <= CACHE_SIZE){
+                    priority = time - cacheTime[v];
+                }
+                if(priority > bestPriority){
+                    bestPriority = priority;
+                    next = v;
+                }
+            }
+
+            coldStart = next < 0;
+            while (next < 0 && deadEndSize > 0) {
+                int v = deadEnd[--deadEndSize];
+                if(liveTriangles[v] > 0) next = v;
+            }
+            while (next < 0 && cursor < numVertices) {
+                if(liveTriangles[cursor] > 0) next = cursor;
+                cursor++;
+            }
+            fanning = next;
+        }
+
+        return new CacheOrder(output, Arrays.copyOf(clusterStarts, numClusters));
+    }
+
+    // Clusters keep their triangle order, so the cache behaves as before except where clusters meet
+    public static int[] optimizeOverdraw(CacheOrder cacheOrder, float[] positions){
+        int[] indices = cacheOrder.indices();
+        int[] clusterStarts = cacheOrder.clusterStarts();
+        int numTriangles = indices.length / 3;
+        int numClusters = clusterStarts.length;
+        if(numClusters <= 1){
+            return indices;
+        }
+
+        float[] centroids = new float[numClusters * 3];
+        float[] normals = new float[numClusters * 3];
+        float[] areas = new float[numClusters];
+        float centerX = 0, centerY = 0, centerZ = 0, totalArea = 0;
+        for (int k = 0; k < numClusters; k++) {
+            int end = k + 1 < numClusters ? clusterStarts[k + 1] : numTriangles;
+            for (int t = clusterStarts[k]; t < end; t++) {
+                int p0 = indices[t * 3] * 3, p1 = indices[t * 3 + 1] * 3, p2 = indices[t * 3 + 2] * 3;
+                float ex = positions[p1] - positions[p0], ey = positions[p1 + 1] - positions[p0 + 1], ez = positions[p1 + 2] - positions[p0 + 2];
+                float fx = positions[p2] - positions[p0], fy = positions[p2 + 1] - positions[p0 + 1], fz = positions[p2 + 2] - positions[p0 + 2];
+                // Twice the area weighted normal
+                float nx = ey * fz - ez * fy, ny = ez * fx - ex * fz, nz = ex * fy - ey * fx;
+                float area = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                normals[k * 3] += nx;
+                normals[k * 3 + 1] += ny;
+                normals[k * 3 + 2] += nz;
+                centroids[k * 3] += area * (positions[p0] + positions[p1] + positions[p2]) / 3;
+                centroids[k * 3 + 1] += area * (positions[p0 + 1] + positions[p1 + 1] + positions[p2 + 1]) / 3;
+                centroids[k * 3 + 2] += area * (positions[p0 + 2] + positions[p1 + 2] + positions[p2 + 2]) / 3;
+                areas[k] += area;
+            }
+            centerX += centroids[k * 3];
+            centerY += centroids[k * 3 + 1];
+            centerZ += centroids[k * 3 + 2];
+            totalArea += areas[k];
+        }
+        if(totalArea <= 0){
+            return indices;
+        }
+        centerX /= totalArea;
+        centerY /= totalArea;
+        centerZ /= totalArea;
+
+        // How far out along its own facing each cluster lies, the furthest out draw first
+        float[] keys = new float[numClusters];
+        Integer[] order = new Integer[numClusters];
+        for (int k = 0; k < numClusters; k++) {
+            order[k] = k;
+            float nx = normals[k * 3], ny = normals[k * 3 + 1], nz = normals[k * 3 + 2];
+            float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if(areas[k] <= 0 || length <= 0) continue;
+            float dx = centroids[k * 3] / areas[k] - centerX;
+            float dy = centroids[k * 3 + 1] / areas[k] - centerY;
+            float dz = centroids[k * 3 + 2] / areas[k] - centerZ;
+            keys[k] = (dx * nx + dy * ny + dz * nz) / length;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(keys[b], keys[a]));
+
+        int[] result = new int[indices.length];
+        int pos = 0;
+        for (int k : order) {
+            int start = clusterStarts[k] * 3;
+            int end = (k + 1 < numClusters ? clusterStarts[k + 1] : numTriangles) * 3;
+            System.arraycopy(indices, start, result, pos, end - start);
+            pos += end - start;
+        }
+        return result;
+    }
+
+    // Rewrites indices in place and returns the new position of every vertex, unreferenced ones go last
+    public static int[] optimizeVertexFetch(int[] indices, int numVertices){
+        int[] remap = new int[numVertices];
+        Arrays.fill(remap, -1);
+        int next = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int v = indices[i];
+            if(remap[v] < 0){
+                remap[v] = next++;
+            }
+            indices[i] = remap[v];
+        }
+        for (int v = 0; v < numVertices; v++) {
+            if(remap[v] < 0){
+                remap[v] = next++;
+            }
+        }
+        return remap;
+    }
+
+    public static float[] remapVertices(float[] data, int[] remap, int components){
+        float[] result = new float[data.length];
+        for (int v = 0; v < remap.length; v++) {
+            System.arraycopy(data, v * components, result, remap[v] * components, components);
+        }
+        return result;
+    }
+
+    public static int[] remapVertices(int[] data, int[] remap, int components){
+        int[] result = new int[data.length];
+        for (int v = 0; v < remap.length; v++) {
+            System.arraycopy(data, v * components, result, remap[v] * components, components);
+        }
+        return result;
+    }
+
+}
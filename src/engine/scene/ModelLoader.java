@@ -1,12 +1,12 @@
 package src.engine.scene;
 
 import org.joml.Matrix4f;
-import org.joml.Quaternionf;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.assimp.*;
 import org.lwjgl.system.MemoryStack;
+import org.tinylog.Logger;
 
 import src.engine.Utils;
 import src.engine.graphics.*;
@@ -19,8 +19,6 @@ import static org.lwjgl.assimp.Assimp.*;
 
 public class ModelLoader {
 
-    public static final int MAX_BONES = 1000;
-    private static final Matrix4f IDENTITY_MATRIX = new Matrix4f();
     
     private ModelLoader(){}
 
@@ -65,9 +63,11 @@ public class ModelLoader {
         PointerBuffer aiMeshes = aiScene.mMeshes();
         List<MeshData> meshDataList = new ArrayList<>();
         List<Bone> boneList = new ArrayList<>();
+        // Skinned triangles move, so sorting them for overdraw in their binding pose would not hold
+        boolean optimizeOverdraw = (flags & aiProcess_PreTransformVertices) != 0;
         for (int i = 0; i < numMeshes; i++) {
             AIMesh aiMesh = AIMesh.create(aiMeshes.get(i));
-            MeshData meshData = processMesh(aiMesh, boneList);
+            MeshData meshData = processMesh(modelId, aiMesh, boneList, optimizeOverdraw);
             int materialIdx = aiMesh.mMaterialIndex();
             if (materialIdx >= 0 && materialIdx < materialList.size()) {
                 meshData.setMaterialIdx(materialList.get(materialIdx).getMaterialIdx());
@@ -173,7 +173,7 @@ public class ModelLoader {
 
     }
 
-    private static MeshData processMesh(AIMesh aiMesh, List<Bone> boneList) {
+    private static MeshData processMesh(String modelId, AIMesh aiMesh, List<Bone> boneList, boolean optimizeOverdraw) {
         float[] vertices = processVertices(aiMesh);
         float[] normals = processNormals(aiMesh);
         float[] textCoords = processTextCoords(aiMesh);
@@ -188,12 +188,30 @@ public class ModelLoader {
             textCoords = new float[numElements];
         }
 
+        // Triangles for the vertex cache and optionally overdraw, then vertices in the order they are first used
+        int numVertices = vertices.length / 3;
+        MeshOptimizer.CacheStats before = MeshOptimizer.analyzeVertexCache(indices, numVertices);
+        MeshOptimizer.CacheOrder cacheOrder = MeshOptimizer.optimizeVertexCache(indices, numVertices);
+        indices = optimizeOverdraw ? MeshOptimizer.optimizeOverdraw(cacheOrder, vertices) : cacheOrder.indices();
+        int[] remap = MeshOptimizer.optimizeVertexFetch(indices, numVertices);
+        vertices = MeshOptimizer.remapVertices(vertices, remap, 3);
+        normals = MeshOptimizer.remapVertices(normals, remap, 3);
+        tangents = MeshOptimizer.remapVertices(tangents, remap, 3);
+        bitangents = MeshOptimizer.remapVertices(bitangents, remap, 3);
+        textCoords = MeshOptimizer.remapVertices(textCoords, remap, 2);
+        int[] boneIds = MeshOptimizer.remapVertices(animMeshData.boneIds, remap, Mesh.MAX_WEIGHTS);
+        float[] weights = MeshOptimizer.remapVertices(animMeshData.weights, remap, Mesh.MAX_WEIGHTS);
+        MeshOptimizer.CacheStats after = MeshOptimizer.analyzeVertexCache(indices, numVertices);
+        Logger.debug("Mesh {} of {}: ACMR {} -> {}, ATVR {} -> {}", aiMesh.mName().dataString(), modelId,
+            String.format("%.3f", before.acmr()), String.format("%.3f", after.acmr()),
+            String.format("%.3f", before.atvr()), String.format("%.3f", after.atvr()));
+
         AIAABB aabb = aiMesh.mAABB();
         Vector3f aabbMin = new Vector3f(aabb.mMin().x(), aabb.mMin().y(), aabb.mMin().z());
         Vector3f aabbMax = new Vector3f(aabb.mMax().x(), aabb.mMax().y(), aabb.mMax().z());
 
-        return new MeshData(vertices, normals, tangents, bitangents, textCoords, indices, animMeshData.boneIds, 
-        animMeshData.weights, aabbMin, aabbMax);
+        return new MeshData(vertices, normals, tangents, bitangents, textCoords, indices, boneIds,
+        weights, aabbMin, aabbMax);
 
     }
 
@@ -374,29 +392,35 @@ public class ModelLoader {
         return result;
     }
 
+    // Keys are kept as they are in the file and sampled at runtime, nothing is baked per frame
     private static List<Model.Animation> processAnimations(AIScene aiScene, List<Bone> boneList,
                                                            Node rootNode, Matrix4f globalInverseTransformation) {
         List<Model.Animation> animations = new ArrayList<>();
+        Skeleton skeleton = new Skeleton(rootNode, boneList, globalInverseTransformation);
+        Map<String, Integer> nodeIdxMap = new HashMap<>();
+        for (int i = 0; i < skeleton.getNumNodes(); i++) {
+            nodeIdxMap.putIfAbsent(skeleton.getNodeName(i), i);
+        }
+
         // Process all animations
         int numAnimations = aiScene.mNumAnimations();
         PointerBuffer aiAnimations = aiScene.mAnimations();
 
         for (int i = 0; i < numAnimations; i++) {
             AIAnimation aiAnimation = AIAnimation.create(aiAnimations.get(i));
-            int maxFrames = calcAnimationMaxFrames(aiAnimation);
-
-            List<Model.AnimatedFrame> frames = new ArrayList<>();
-            Model.Animation animation = new Model.Animation(aiAnimation.mName().dataString(), aiAnimation.mDuration(), frames);
-            animations.add(animation);
-
-            for (int j = 0; j < maxFrames; j++) {
-                Matrix4f[] boneMatrices = new Matrix4f[MAX_BONES];
-                Arrays.fill(boneMatrices, IDENTITY_MATRIX);
-                Model.AnimatedFrame animatedFrame = new Model.AnimatedFrame(boneMatrices);
-                buildFrameMatrices(aiAnimation, boneList, animatedFrame, j, rootNode,
-                        rootNode.getNodeTransformation(), globalInverseTransformation);
-                frames.add(animatedFrame);
+            AnimationChannel[] channels = new AnimationChannel[skeleton.getNumNodes()];
+            int numChannels = aiAnimation.mNumChannels();
+            PointerBuffer aiChannels = aiAnimation.mChannels();
+            for (int j = 0; j < numChannels; j++) {
+                AINodeAnim aiNodeAnim = AINodeAnim.create(aiChannels.get(j));
+                Integer nodeIdx = nodeIdxMap.get(aiNodeAnim.mNodeName().dataString());
+                // Only the first channel of a node is used
+                if (nodeIdx != null && channels[nodeIdx] == null) {
+                    channels[nodeIdx] = processChannel(aiNodeAnim);
+                }
             }
+            animations.add(new Model.Animation(aiAnimation.mName().dataString(), aiAnimation.mDuration(),
+                    aiAnimation.mTicksPerSecond(), skeleton, channels));
         }
         return animations;
     }
@@ -421,87 +445,45 @@ public class ModelLoader {
         return animations;
     }
 
-    private static int calcAnimationMaxFrames(AIAnimation aiAnimation) {
-        int maxFrames = 0;
-        int numNodeAnims = aiAnimation.mNumChannels();
-        PointerBuffer aiChannels = aiAnimation.mChannels();
-        for (int i = 0; i < numNodeAnims; i++) {
-            AINodeAnim aiNodeAnim = AINodeAnim.create(aiChannels.get(i));
-            int numFrames = Math.max(Math.max(aiNodeAnim.mNumPositionKeys(), aiNodeAnim.mNumScalingKeys()),
-                    aiNodeAnim.mNumRotationKeys());
-            maxFrames = Math.max(maxFrames, numFrames);
-        }
-
-        return maxFrames;
-    }
-
-    private static void buildFrameMatrices(AIAnimation aiAnimation, List<Bone> boneList, Model.AnimatedFrame animatedFrame,
-                                           int frame, Node node, Matrix4f parentTransformation, Matrix4f globalInverseTransform) {
-        String nodeName = node.getName();
-        AINodeAnim aiNodeAnim = findAIAnimNode(aiAnimation, nodeName);
-        Matrix4f nodeTransform = node.getNodeTransformation();
-        if (aiNodeAnim != null) {
-            nodeTransform = buildNodeTransformationMatrix(aiNodeAnim, frame);
-        }
-        Matrix4f nodeGlobalTransform = new Matrix4f(parentTransformation).mul(nodeTransform);
-
-        List<Bone> affectedBones = boneList.stream().filter(b -> b.boneName().equals(nodeName)).toList();
-        for (Bone bone : affectedBones) {
-            Matrix4f boneTransform = new Matrix4f(globalInverseTransform).mul(nodeGlobalTransform).
-                    mul(bone.offsetMatrix());
-            animatedFrame.getBonesMatrices()[bone.boneId()] = boneTransform;
+    private static AnimationChannel processChannel(AINodeAnim aiNodeAnim) {
+        int numPositions = aiNodeAnim.mNumPositionKeys();
+        AIVectorKey.Buffer positionKeys = aiNodeAnim.mPositionKeys();
+        float[] positionTimes = new float[numPositions];
+        float[] positions = new float[numPositions * 3];
+        for (int i = 0; i < numPositions; i++) {
+            AIVectorKey key = positionKeys.get(i);
+            positionTimes[i] = (float) key.mTime();
+            positions[i * 3] = key.mValue().x();
+            positions[i * 3 + 1] = key.mValue().y();
+            positions[i * 3 + 2] = key.mValue().z();
         }
 
-        for (Node childNode : node.getChildren()) {
-            buildFrameMatrices(aiAnimation, boneList, animatedFrame, frame, childNode, nodeGlobalTransform,
-                    globalInverseTransform);
+        int numRotations = aiNodeAnim.mNumRotationKeys();
+        AIQuatKey.Buffer rotationKeys = aiNodeAnim.mRotationKeys();
+        float[] rotationTimes = new float[numRotations];
+        float[] rotations = new float[numRotations * 4];
+        for (int i = 0; i < numRotations; i++) {
+            AIQuatKey key = rotationKeys.get(i);
+            rotationTimes[i] = (float) key.mTime();
+            rotations[i * 4] = key.mValue().x();
+            rotations[i * 4 + 1] = key.mValue().y();
+            rotations[i * 4 + 2] = key.mValue().z();
+            rotations[i * 4 + 3] = key.mValue().w();
         }
-    }
 
-    private static Matrix4f buildNodeTransformationMatrix(AINodeAnim aiNodeAnim, int frame) {
-        AIVectorKey.Buffer positionKeys = aiNodeAnim.mPositionKeys();
+        int numScales = aiNodeAnim.mNumScalingKeys();
         AIVectorKey.Buffer scalingKeys = aiNodeAnim.mScalingKeys();
-        AIQuatKey.Buffer rotationKeys = aiNodeAnim.mRotationKeys();
-
-        AIVectorKey aiVecKey;
-        AIVector3D vec;
-
-        Matrix4f nodeTransform = new Matrix4f();
-        int numPositions = aiNodeAnim.mNumPositionKeys();
-        if (numPositions > 0) {
-            aiVecKey = positionKeys.get(Math.min(numPositions - 1, frame));
-            vec = aiVecKey.mValue();
-            nodeTransform.translate(vec.x(), vec.y(), vec.z());
-        }
-        int numRotations = aiNodeAnim.mNumRotationKeys();
-        if (numRotations > 0) {
-            AIQuatKey quatKey = rotationKeys.get(Math.min(numRotations - 1, frame));
-            AIQuaternion aiQuat = quatKey.mValue();
-            Quaternionf quat = new Quaternionf(aiQuat.x(), aiQuat.y(), aiQuat.z(), aiQuat.w());
-            nodeTransform.rotate(quat);
-        }
-        int numScalingKeys = aiNodeAnim.mNumScalingKeys();
-        if (numScalingKeys > 0) {
-            aiVecKey = scalingKeys.get(Math.min(numScalingKeys - 1, frame));
-            vec = aiVecKey.mValue();
-            nodeTransform.scale(vec.x(), vec.y(), vec.z());
+        float[] scaleTimes = new float[numScales];
+        float[] scales = new float[numScales * 3];
+        for (int i = 0; i < numScales; i++) {
+            AIVectorKey key = scalingKeys.get(i);
+            scaleTimes[i] = (float) key.mTime();
+            scales[i * 3] = key.mValue().x();
+            scales[i * 3 + 1] = key.mValue().y();
+            scales[i * 3 + 2] = key.mValue().z();
         }
 
-        return nodeTransform;
-    }
-
-    private static AINodeAnim findAIAnimNode(AIAnimation aiAnimation, String nodeName) {
-        AINodeAnim result = null;
-        int numAnimNodes = aiAnimation.mNumChannels();
-        PointerBuffer aiChannels = aiAnimation.mChannels();
-        for (int i = 0; i < numAnimNodes; i++) {
-            AINodeAnim aiNodeAnim = AINodeAnim.create(aiChannels.get(i));
-            if (nodeName.equals(aiNodeAnim.mNodeName().dataString())) {
-                result = aiNodeAnim;
-                break;
-            }
-        }
-        return result;
+        return new AnimationChannel(positionTimes, positions, rotationTimes, rotations, scaleTimes, scales);
     }
 
     public record AnimMeshData(float[] weights, int[] boneIds) {
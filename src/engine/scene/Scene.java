@@ -23,16 +23,20 @@ public class Scene {
     private SkyBox skyBox;
     private Fog fog;
     private Entity selectedEntity;
+    private EntityRegistry entityRegistry;
     private MaterialCache materialCache;
     private boolean meshMode, inputConsumed, guiRendering;
     private ArrayList<ModelToLoadData> modelsToLoad;
 
-    private List<Model> staticModels, animModels;
+    private List<Model> staticModels, animModels, crowdModels;
+    // Clock of the crowd models, the vertex shaders pose their entities from it and the time each had when last uploaded
+    private double crowdTime;
     private final Semaphore loadListAvail;
     
     public Scene(int width, int height) {
 
         modelMap = new HashMap<>();
+        entityRegistry = new EntityRegistry();
         projection = new Projection(width, height);
         textureCache = new TextureCache();
         materialCache = new MaterialCache();
@@ -43,6 +47,8 @@ public class Scene {
 
         staticModels = new ArrayList<>();
         animModels = new ArrayList<>();
+        crowdModels = new ArrayList<>();
+        crowdTime = 0;
         modelsToLoad = new ArrayList<>();
     }
 
@@ -59,25 +65,10 @@ public class Scene {
             throw new RuntimeException("Could not find model [" + modelID + "]");
         }
 
-        if(model.getEntityList().size() == 0)
-            model.getEntityList().add(entity);
-        else{
-            int j = 0;
-            List<Entity> entList = model.getEntityList();
-            boolean found;
-            do{
-                String id = entity.getID();
-                found = false;
-                for(int i = 0; i < entList.size() && !found; i++){
-                    found  = entList.get(i).getID().equals(entity.getID());
-                }
-                if(found){
-                    j++;
-                    entity.setID(id + "(" + j + ")");
-                }
-            }while(found);
-            model.getEntityList().add(entity);
-        }
+        // IDs are only shown in the GUI, entities are told apart by their handle
+        entityRegistry.add(entity);
+        entity.setListIndex(model.getEntityList().size());
+        model.getEntityList().add(entity);
 
         // if(model.getEntityList().size() == 0){
         //     model.getEntityList().add(entity);
@@ -154,10 +145,39 @@ public class Scene {
 
     }
 
+    public boolean removeEntity(int handle){
+        Entity entity = entityRegistry.get(handle);
+        if(entity == null){
+            return false;
+        }
+        // The last entity takes its place, the renderer rebuilds its draws after a removal anyway
+        List<Entity> entityList = modelMap.get(entity.getModelID()).getEntityList();
+        int index = entity.getListIndex();
+        Entity last = entityList.remove(entityList.size() - 1);
+        if(last != entity){
+            entityList.set(index, last);
+            last.setListIndex(index);
+        }
+        entityRegistry.remove(handle);
+        if(selectedEntity == entity){
+            selectedEntity = null;
+        }
+        return true;
+    }
+
+    public Entity getEntity(int handle){
+        return entityRegistry.get(handle);
+    }
+
+    public EntityRegistry getEntityRegistry(){
+        return entityRegistry;
+    }
+
     public void addModel(Model model) {
         if(!modelMap.containsKey(model.getID())){
             modelMap.put(model.getID(), model);        
             if(!model.isAnimated()) staticModels.add(model);
+            else if(model.isCrowd()) crowdModels.add(model);
             else animModels.add(model);
         }
     }
@@ -277,6 +297,10 @@ public class Scene {
         selectedEntity = sE;
     }
 
+    public int getSelectedHandle(){
+        return selectedEntity == null ? EntityRegistry.INVALID_HANDLE : selectedEntity.getHandle();
+    }
+
     public MaterialCache getMaterialCache(){
         return materialCache;
     }
@@ -289,6 +313,18 @@ public class Scene {
         return animModels;
     }
     
+    public List<Model> getCrowdModelList(){
+        return crowdModels;
+    }
+
+    public double getCrowdTime(){
+        return crowdTime;
+    }
+
+    public void advanceCrowdTime(double seconds){
+        crowdTime += seconds;
+    }
+
     public void setStaticModelList(List<Model> sM){
         staticModels = sM;
     }
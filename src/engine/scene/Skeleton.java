@@ -0,0 +1,130 @@
+package src.engine.scene;
+
+import org.joml.Matrix4f;
+
+import java.util.*;
+
+import src.engine.scene.ModelLoader.Bone;
+
+/*
+ * Node hierarchy of an animation file flattened so every parent comes before its children, with the bones
+ * each node drives. Poses are built from it by walking the nodes in order, without recursion or lookups.
+ */
+public class Skeleton {
+
+    // Bone matrices are kept as the three rows of their affine part
+    public static final int BONE_SIZE_FLOATS = 3 * 4;
+
+    private final String[] nodeNames;
+    private final int[] parents;
+    private final Matrix4f[] nodeTransforms;
+    private final int[][] nodeBones;
+    private final Matrix4f[] offsetMatrices;
+    private final Matrix4f rootTransform;
+    private final Matrix4f globalInverseTransform;
+
+    public Skeleton(Node rootNode, List<Bone> boneList, Matrix4f globalInverseTransform){
+        List<Node> nodes = new ArrayList<>();
+        List<Integer> parentList = new ArrayList<>();
+        flatten(rootNode, -1, nodes, parentList);
+
+        int numNodes = nodes.size();
+        nodeNames = new String[numNodes];
+        parents = new int[numNodes];
+        nodeTransforms = new Matrix4f[numNodes];
+        nodeBones = new int[numNodes][];
+
+        Map<String, Integer> nodeIdxMap = new HashMap<>();
+        for (int i = 0; i < numNodes; i++) {
+            Node node = nodes.get(i);
+            nodeNames[i] = node.getName();
+            parents[i] = parentList.get(i);
+            nodeTransforms[i] = node.getNodeTransformation();
+            nodeIdxMap.putIfAbsent(node.getName(), i);
+        }
+
+        // Meshes add their own copy of a shared bone, so a node can drive several bone ids
+        List<List<Integer>> bonesPerNode = new ArrayList<>();
+        for (int i = 0; i < numNodes; i++) {
+            bonesPerNode.add(new ArrayList<>());
+        }
+        offsetMatrices = new Matrix4f[boneList.size()];
+        for (Bone bone : boneList) {
+            offsetMatrices[bone.boneId()] = bone.offsetMatrix();
+            Integer nodeIdx = nodeIdxMap.get(bone.boneName());
+            if(nodeIdx != null){
+                bonesPerNode.get(nodeIdx).add(bone.boneId());
+            }
+        }
+        for (int i = 0; i < numNodes; i++) {
+            nodeBones[i] = bonesPerNode.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        // The baked frames started the walk from the root's own transformation, kept so poses do not change
+        rootTransform = rootNode.getNodeTransformation();
+        this.globalInverseTransform = globalInverseTransform;
+    }
+
+    private static void flatten(Node node, int parent, List<Node> nodes, List<Integer> parentList){
+        int idx = nodes.size();
+        nodes.add(node);
+        parentList.add(parent);
+        for (Node child : node.getChildren()) {
+            flatten(child, idx, nodes, parentList);
+        }
+    }
+
+    public static void putBoneMatrix(float[] bonesData, int boneId, Matrix4f matrix){
+        int pos = boneId * BONE_SIZE_FLOATS;
+        bonesData[pos] = matrix.m00();
+        bonesData[pos + 1] = matrix.m10();
+        bonesData[pos + 2] = matrix.m20();
+        bonesData[pos + 3] = matrix.m30();
+        bonesData[pos + 4] = matrix.m01();
+        bonesData[pos + 5] = matrix.m11();
+        bonesData[pos + 6] = matrix.m21();
+        bonesData[pos + 7] = matrix.m31();
+        bonesData[pos + 8] = matrix.m02();
+        bonesData[pos + 9] = matrix.m12();
+        bonesData[pos + 10] = matrix.m22();
+        bonesData[pos + 11] = matrix.m32();
+    }
+
+    public int getNumNodes(){
+        return nodeNames.length;
+    }
+
+    public int getNumBones(){
+        return offsetMatrices.length;
+    }
+
+    public String getNodeName(int node){
+        return nodeNames[node];
+    }
+
+    // -1 for the root
+    public int getParent(int node){
+        return parents[node];
+    }
+
+    public Matrix4f getNodeTransform(int node){
+        return nodeTransforms[node];
+    }
+
+    public int[] getNodeBones(int node){
+        return nodeBones[node];
+    }
+
+    public Matrix4f getOffsetMatrix(int boneId){
+        return offsetMatrices[boneId];
+    }
+
+    public Matrix4f getRootTransform(){
+        return rootTransform;
+    }
+
+    public Matrix4f getGlobalInverseTransform(){
+        return globalInverseTransform;
+    }
+
+}
@@ -13,6 +13,10 @@ public class SkyBox {
         skyBoxModel = ModelLoader.loadModel("skybox-model", skyBoxModelPath, textureCache, materialCache, false);
         MeshData meshData = skyBoxModel.getMeshDataList().get(0);
         material = materialCache.getMaterial(meshData.getMaterialIdx());
+        // The sky is drawn on its own, not from the texture arrays
+        if(material.getTexturePath() != null){
+            textureCache.createStandaloneTexture(material.getTexturePath());
+        }
         mesh = new Mesh(meshData);
         skyBoxModel.getMeshDataList().clear();
         skyBoxEntity = new Entity("skyBoxEntity-entity", skyBoxModel);
@@ -41,29 +41,35 @@ public class EntityList implements IGuiInstance{
 
         // ImGui.showMetricsWindow();
         Entity newEntity = null;
+        Entity removedEntity = null;
         if(ImGui.collapsingHeader("EntityList"))
             for(Model m : scene.getModelMap().values()){
 
                 for(Entity e : m.getEntityList()){
 
-                    if(ImGui.button(e.getID())){
+                    if(ImGui.button(e.getID() + "##" + e.getHandle())){
                         scene.setSelectedEntity(e);
                     }
                     
                     ImGui.sameLine();
 
                     if(e.isVisible()){
-                        if(ImGui.button("  \u0101  ##"+e.getID())){e.toggleVisibility();}
+                        if(ImGui.button("  \u0101  ##"+e.getHandle())){e.toggleVisibility();}
                     }
                     else{
-                        if(ImGui.button("  \u0102  ##"+e.getID())){e.toggleVisibility();}
+                        if(ImGui.button("  \u0102  ##"+e.getHandle())){e.toggleVisibility();}
                     }
                     
                     ImGui.sameLine();
-                    if(ImGui.button("+##"+e.getID())){
+                    if(ImGui.button("+##"+e.getHandle())){
                         newEntity = new Entity(e);
                     }
 
+                    ImGui.sameLine();
+                    if(ImGui.button("x##"+e.getHandle())){
+                        removedEntity = e;
+                    }
+
                 }
             }
 
@@ -79,6 +85,11 @@ public class EntityList implements IGuiInstance{
             
             scene.setSelectedEntity(newEntity);
         }
+
+        // Removing reorders the entity list, so it waits until the list is drawn
+        if(removedEntity != null){
+            render.removeEntity(removedEntity, scene);
+        }
     }
     
     @Override
@@ -428,9 +428,16 @@ public class Game implements IAppLogic{
 
         if(meshMode) return;
         
+        float seconds = diffTimeMillis / 1000f;
+        scene.advanceCrowdTime(seconds);
         for(Model m : scene.getAnimModelList())
         for(Entity e : m.getEntityList()){
-            e.getAnimationData().nextFrame();
+            e.getAnimationData().advance(seconds);
+        }
+        // Only the clock moves, crowds are posed by the vertex shaders from where it stood when their instances were written
+        for(Model m : scene.getCrowdModelList())
+        for(Entity e : m.getEntityList()){
+            if(e.getAnimationData() != null) e.getAnimationData().advance(seconds);
         }
 
         rotation += 1.5;
@@ -464,6 +471,7 @@ public class Game implements IAppLogic{
                 entity.setScale(scale);
                 entity.setPosition((cellCol + xOffset) * 2.0f, 0, (cellRow + zOffset) * 2.0f);
                 entity.getModelMatrix().identity().scale(scale).translate(entity.getPosition());
+                entity.markTransformChanged();
                 xOffset++;
             }
             zOffset++;
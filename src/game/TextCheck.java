@@ -3,6 +3,7 @@ package src.game;
 import src.engine.IGuiInstance;
 import src.engine.MouseInput;
 import src.engine.Window;
+import src.engine.graphics.AnimationLod;
 import src.engine.graphics.Model;
 import src.engine.graphics.Render;
 import src.engine.graphics.Model.Animation;
@@ -117,6 +118,17 @@ public class TextCheck implements IGuiInstance{
 
         }
 
+        if(ImGui.collapsingHeader("Animation LOD")){
+            AnimationLod lod = render.getAnimationLod();
+            int[] intervals = lod.getIntervals();
+            ImGui.text("Updated " + lod.getUpdatedCount() + ", deferred " + lod.getDeferredCount() + ", culled " + lod.getCulledCount());
+            ImGui.text("Sharing a pose: " + render.getSharedPoseCount());
+            ImGui.text("Skinned " + render.getSkinnedCount() + ", unchanged poses skipped " + render.getSkippedSkinningCount());
+            for(int i = 0; i < lod.getNumLevels(); i++){
+                ImGui.text("Level " + i + " (every " + intervals[i] + " frames): " + lod.getLevelCount(i));
+            }
+        }
+
         ImGuiIO imGuiIO = ImGui.getIO();
 
         imGuiIO.setKeyMap(ImGuiKey.Backspace, GLFW_KEY_BACKSPACE);